@@ -43,6 +43,7 @@ import com.spotify.docker.client.shaded.com.google.common.base.Optional;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
@@ -67,6 +68,11 @@ abstract class AbstractDockerMojo extends AbstractMojo {
   @Component(role = MojoExecution.class)
   protected MojoExecution execution;
 
+  /**
+   * URI of the docker daemon the goal talks to, known once the client has been built.
+   */
+  protected URI dockerUri;
+
   /**
    * The system settings for Maven. This is the instance resulting from
    * merging global and user-level settings files.
@@ -177,6 +183,7 @@ abstract class AbstractDockerMojo extends AbstractMojo {
 
     builder.registryAuthSupplier(authSupplier());
 
+    dockerUri = builder.uri();
     return builder.build();
   }
 
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the Dockerfile instructions that train an AppCDS archive of the classes an
+ * application loads while it starts, and an ENTRYPOINT that uses the archive. The archive is
+ * created with {@code -XX:ArchiveClassesAtExit}, which needs JDK 13 or later.
+ */
+class AppCds {
+
+  /**
+   * Path of the archive, relative to the working directory of the image.
+   */
+  static final String ARCHIVE = "app-cds.jsa";
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final Pattern SAFE = Pattern.compile("[A-Za-z0-9_./:=+,@%-]+");
+  private static final Set<String> CLASS_PATH_OPTIONS =
+      ImmutableSet.of("-cp", "-classpath", "--class-path");
+
+  private final List<String> command;
+
+  private AppCds(final List<String> command) {
+    this.command = command;
+  }
+
+  /**
+   * @param entryPoint an ENTRYPOINT in exec form, e.g. {@code ["java", "-jar", "app.jar"]}
+   * @return {@link AppCds}, or {@code null} if the ENTRYPOINT is not the exec form of a java
+   *         command
+   */
+  static AppCds forEntryPoint(final String entryPoint) {
+    if (entryPoint == null || !entryPoint.trim().startsWith("[")) {
+      return null;
+    }
+    final List<String> command;
+    try {
+      command = OBJECT_MAPPER.readValue(entryPoint, new TypeReference<List<String>>() {});
+    } catch (IOException e) {
+      return null;
+    }
+    if (command.isEmpty() || !command.get(0).equals("java")
+                             && !command.get(0).endsWith("/java")) {
+      return null;
+    }
+    return new AppCds(command);
+  }
+
+  /**
+   * Creates a RUN instruction that starts the application once to create the archive, and once
+   * more with the archive to log when the last class was loaded with and without it.
+   *
+   * @param trainingOptions JVM options for both runs, e.g. to make the application exit once it
+   *                        has started
+   * @param timeout         seconds after which each run is stopped
+   * @return the RUN instruction
+   */
+  String trainingRun(final List<String> trainingOptions, final int timeout) {
+    final String without = "/tmp/app-cds-without.log";
+    final String with = "/tmp/app-cds-with.log";
+    return "RUN " + Joiner.on(" ; \\\n\t").join(
+        "timeout " + timeout + " " + run("-XX:ArchiveClassesAtExit=" + ARCHIVE, without,
+                                         trainingOptions),
+        "timeout " + timeout + " " + run("-XX:SharedArchiveFile=" + ARCHIVE, with,
+                                         trainingOptions),
+        "echo \"AppCDS startup: last class loaded after " + lastUptime(without) + " without and "
+        + lastUptime(with) + " with the archive, $(grep -c 'shared objects file' " + with
+        + ") of $(wc -l < " + with + ") classes loaded from it\"",
+        "rm -f " + without + " " + with,
+        "test -f " + ARCHIVE);
+  }
+
+  /**
+   * Returns the entries of the class path of the command that are neither jars nor wildcards, and
+   * so presumably directories. The JVM refuses to create an archive from a class path with
+   * non-empty directories on it.
+   */
+  List<String> classPathDirectories() {
+    final List<String> directories = Lists.newArrayList();
+    for (int i = 1; i < command.size() - 1; i++) {
+      if (!CLASS_PATH_OPTIONS.contains(command.get(i))) {
+        continue;
+      }
+      for (final String entry : Splitter.on(':').omitEmptyStrings().split(command.get(i + 1))) {
+        if (!entry.endsWith(".jar") && !entry.endsWith("*")) {
+          directories.add(entry);
+        }
+      }
+    }
+    return directories;
+  }
+
+  /**
+   * @return the ENTRYPOINT, using the archive
+   * @throws JsonProcessingException if the ENTRYPOINT cannot be written
+   */
+  String entryPoint() throws JsonProcessingException {
+    final List<String> entryPoint = Lists.newArrayList(command);
+    entryPoint.add(1, "-XX:SharedArchiveFile=" + ARCHIVE);
+    return OBJECT_MAPPER.writeValueAsString(entryPoint).replace("\",\"", "\", \"");
+  }
+
+  private String run(final String archiveOption, final String log,
+                     final List<String> trainingOptions) {
+    final List<String> run = Lists.newArrayList(command);
+    run.addAll(1, trainingOptions);
+    run.add(1, "-Xlog:class+load:file=" + log + ":uptime");
+    run.add(1, archiveOption);
+    final List<String> quoted = Lists.newArrayList();
+    for (final String arg : run) {
+      quoted.add(SAFE.matcher(arg).matches() ? arg : "'" + arg.replace("'", "'\\''") + "'");
+    }
+    return Joiner.on(' ').join(quoted);
+  }
+
+  // the uptime decoration of the last line of a class loading log, e.g. 0.512s
+  private static String lastUptime(final String log) {
+    return "$(tail -n 1 " + log + " | cut -d ']' -f 1 | tr -d '[')";
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Unpacks a jar into separate directories for nested jars, resources and classes, so that each
+ * can be added to the image as its own layer. Spring Boot jars are unpacked from their
+ * {@code BOOT-INF} layout.
+ */
+class ArtifactExploder {
+
+  static final String LIB = "lib";
+  static final String RESOURCES = "resources";
+  static final String CLASSES = "classes";
+
+  private static final String BOOT_CLASSES = "BOOT-INF/classes/";
+  private static final String[] NESTED_LIBS = {"BOOT-INF/lib/", "WEB-INF/lib/"};
+
+  private final Path jar;
+
+  /**
+   * @param jar the jar to unpack
+   */
+  ArtifactExploder(final Path jar) {
+    this.jar = jar;
+  }
+
+  /**
+   * Unpacks the jar into {@code directory}. Files that were unpacked before and have not changed
+   * since are left alone, and files that are no longer in the jar are deleted.
+   *
+   * @param target directory to unpack into
+   * @return the main class of the jar, or {@code null} if it has none
+   * @throws IOException if the jar cannot be read or the directory cannot be written
+   */
+  String explode(final Path target) throws IOException {
+    final Path directory = target.toAbsolutePath().normalize();
+    final Set<Path> unpacked = Sets.newHashSet();
+    String mainClass = null;
+    try (JarFile jarFile = new JarFile(jar.toFile())) {
+      final Manifest manifest = jarFile.getManifest();
+      if (manifest != null) {
+        final Attributes attributes = manifest.getMainAttributes();
+        // Spring Boot names its launcher as Main-Class, and the application as Start-Class
+        mainClass = attributes.getValue("Start-Class") != null
+                    ? attributes.getValue("Start-Class")
+                    : attributes.getValue(Attributes.Name.MAIN_CLASS);
+      }
+      final Enumeration<JarEntry> entries = jarFile.entries();
+      while (entries.hasMoreElements()) {
+        final JarEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        final Path file = directory.resolve(targetOf(entry.getName())).normalize();
+        if (!file.startsWith(directory)) {
+          throw new IOException("Entry " + entry.getName() + " is outside of " + jar);
+        }
+        unpacked.add(file);
+        if (Files.isRegularFile(file) && Files.size(file) == entry.getSize()
+            && Files.getLastModifiedTime(file).toMillis() == entry.getTime()) {
+          continue;
+        }
+        Files.createDirectories(file.getParent());
+        try (InputStream in = jarFile.getInputStream(entry)) {
+          Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(entry.getTime()));
+      }
+    }
+    deleteStale(directory, unpacked);
+    return mainClass;
+  }
+
+  // the path below the unpack directory that an entry of the jar is unpacked to
+  private static String targetOf(final String name) {
+    for (final String nested : NESTED_LIBS) {
+      if (name.startsWith(nested) && name.endsWith(".jar")) {
+        return LIB + "/" + name.substring(nested.length());
+      }
+    }
+    final String path = name.startsWith(BOOT_CLASSES) ? name.substring(BOOT_CLASSES.length())
+                                                      : name;
+    return (path.endsWith(".class") ? CLASSES : RESOURCES) + "/" + path;
+  }
+
+  private static void deleteStale(final Path directory, final Set<Path> unpacked)
+      throws IOException {
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+          throws IOException {
+        if (!unpacked.contains(file)) {
+          Files.delete(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir, final IOException e)
+          throws IOException {
+        if (e != null) {
+          throw e;
+        }
+        if (!dir.equals(directory)) {
+          try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            if (!children.iterator().hasNext()) {
+              Files.delete(dir);
+            }
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
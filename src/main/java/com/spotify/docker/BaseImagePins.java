@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Maps;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Image;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The digests that base image tags have been resolved to in a Maven session. Each tag is pulled
+ * and resolved by the first module of the session that builds from it, and every later module
+ * builds from the same digest, without asking the registry again.
+ */
+class BaseImagePins {
+
+  // the pins of each session, by the request that all clones of a session share; weak so that a
+  // long-lived JVM running several sessions does not hold on to them
+  private static final Map<Object, BaseImagePins> SESSIONS = new WeakHashMap<>();
+
+  private final Map<String, String> pinned = Maps.newHashMap();
+
+  static BaseImagePins forSession(final MavenSession session) {
+    synchronized (SESSIONS) {
+      BaseImagePins pins = SESSIONS.get(session.getRequest());
+      if (pins == null) {
+        pins = new BaseImagePins();
+        SESSIONS.put(session.getRequest(), pins);
+      }
+      return pins;
+    }
+  }
+
+  /**
+   * Returns the pinned reference of {@code image}, or null if it has not been resolved in this
+   * session yet.
+   */
+  synchronized String get(final String image) {
+    return pinned.get(image);
+  }
+
+  /**
+   * Resolves {@code image} to a reference by digest, e.g. {@code busybox@sha256:...}, unless it
+   * has been resolved in this session before. The image is pulled first if {@code pull} is set or
+   * if it is not present locally. An image that was never pulled from a registry has no digest and
+   * is left as it is.
+   *
+   * @return the reference to build from
+   */
+  synchronized String resolve(final DockerClient docker, final String image, final boolean pull,
+                              final Log log) throws DockerException, InterruptedException {
+    final String existing = pinned.get(image);
+    if (existing != null) {
+      log.debug(String.format("Base image %s was pinned to %s earlier in this session", image,
+                              existing));
+      return existing;
+    }
+    if (image.contains("@")) {
+      pinned.put(image, image);
+      return image;
+    }
+
+    // without a tag, docker would pull and list every tag of the repository
+    final String tagged = BaseImagePuller.withDefaultTag(image);
+    if (pull) {
+      docker.pull(tagged);
+    }
+    List<Image> images = list(docker, tagged);
+    if (images.isEmpty() && !pull) {
+      docker.pull(tagged);
+      images = list(docker, tagged);
+    }
+
+    final String reference = pin(image, images);
+    if (reference.equals(image)) {
+      log.info("Base image " + image + " has no digest, not pinning it");
+    } else {
+      log.info(String.format("Pinned base image %s to %s for this session", image, reference));
+    }
+    pinned.put(image, reference);
+    return reference;
+  }
+
+  private static List<Image> list(final DockerClient docker, final String image)
+      throws DockerException, InterruptedException {
+    return docker.listImages(DockerClient.ListImagesParam.byName(image),
+                             DockerClient.ListImagesParam.digests());
+  }
+
+  /**
+   * Returns the repo digest of {@code images} that belongs to the repository of {@code image}, or
+   * {@code image} itself if there is none.
+   */
+  static String pin(final String image, final List<Image> images) {
+    final int slash = image.lastIndexOf('/');
+    final int colon = image.lastIndexOf(':');
+    final String repository = colon > slash ? image.substring(0, colon) : image;
+    for (final Image candidate : images) {
+      if (candidate.repoDigests() == null) {
+        continue;
+      }
+      for (final String digest : candidate.repoDigests()) {
+        if (digest.startsWith(repository + "@")) {
+          return digest;
+        }
+      }
+    }
+    return image;
+  }
+}
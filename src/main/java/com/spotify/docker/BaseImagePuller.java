@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Pulls the base images of a build in the background, so that the pull overlaps with staging
+ * the build context instead of starting only once the daemon has received it.
+ */
+class BaseImagePuller {
+
+  private static final Splitter WORDS = Splitter.onPattern("\\s+").omitEmptyStrings();
+
+  private final DockerClient docker;
+  private final Log log;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("docker-pull-%d").setDaemon(true).build());
+  private Future<?> pull;
+  private boolean pulled;
+
+  BaseImagePuller(final DockerClient docker, final Log log) {
+    this.docker = docker;
+    this.log = log;
+  }
+
+  /**
+   * Starts pulling {@code images}. Images that are present locally are only pulled if
+   * {@code always} is set, mirroring what the daemon does with and without {@code --pull}.
+   */
+  void start(final Collection<String> images, final boolean always) {
+    start(images, always, null);
+  }
+
+  /**
+   * Starts pulling {@code images} like {@link #start(Collection, boolean)}, and resolves them to
+   * digests with {@code pins}. Images that have been resolved in this session already are neither
+   * pulled nor resolved again.
+   */
+  void start(final Collection<String> images, final boolean always, final BaseImagePins pins) {
+    final List<String> toPull = Lists.newArrayList(images);
+    final Callable<Void> task = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        for (final String image : toPull) {
+          if (pins != null) {
+            pins.resolve(docker, image, always, log);
+          } else if (always || !isPresent(image)) {
+            log.info("Pulling base image " + image + " while staging");
+            docker.pull(withDefaultTag(image));
+          }
+        }
+        return null;
+      }
+    };
+    pull = executor.submit(task);
+    executor.shutdown();
+  }
+
+  /**
+   * Waits for the pull started by {@link #start(Collection, boolean)} to finish. A failed pull is
+   * only logged, the build will then pull the image itself and report any error.
+   *
+   * @return whether every image was pulled, or found to be present, successfully
+   * @throws InterruptedException if interrupted while waiting, which cancels the pull
+   */
+  boolean await() throws InterruptedException {
+    if (pull == null) {
+      return pulled;
+    }
+    try {
+      pull.get();
+      pulled = true;
+    } catch (ExecutionException e) {
+      log.warn("Failed to pull base image: " + e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      pull.cancel(true);
+      throw e;
+    }
+    pull = null;
+    return pulled;
+  }
+
+  /**
+   * Returns {@code image} with the {@code latest} tag if it has neither a tag nor a digest, as the
+   * docker CLI does. Pulling a repository without a tag pulls every tag of it.
+   */
+  static String withDefaultTag(final String image) {
+    if (image.contains("@") || image.lastIndexOf(':') > image.lastIndexOf('/')) {
+      return image;
+    }
+    return image + ":latest";
+  }
+
+  private boolean isPresent(final String image) throws DockerException, InterruptedException {
+    try {
+      docker.inspectImage(image);
+      return true;
+    } catch (ImageNotFoundException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Finds the images a Dockerfile builds from. Stages of a multi-stage build, {@code scratch} and
+   * images that depend on build arguments are left out.
+   *
+   * @param dockerfile the Dockerfile
+   * @return the images, in the order they appear
+   * @throws IOException if the Dockerfile cannot be read
+   */
+  static Set<String> parseBaseImages(final Path dockerfile) throws IOException {
+    final Set<String> images = Sets.newLinkedHashSet();
+    for (final String image : parseFromImages(dockerfile)) {
+      if (!image.contains("$")) {
+        images.add(image);
+      }
+    }
+    return images;
+  }
+
+  /**
+   * Returns whether a Dockerfile builds from an image that depends on build arguments, and so is
+   * missing from {@link #parseBaseImages(Path)}.
+   *
+   * @param dockerfile the Dockerfile
+   * @throws IOException if the Dockerfile cannot be read
+   */
+  static boolean hasUnresolvedBaseImages(final Path dockerfile) throws IOException {
+    for (final String image : parseFromImages(dockerfile)) {
+      if (image.contains("$")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Set<String> parseFromImages(final Path dockerfile) throws IOException {
+    final Set<String> images = Sets.newLinkedHashSet();
+    final Set<String> stages = Sets.newHashSet();
+    for (final String line : Files.readAllLines(dockerfile, UTF_8)) {
+      final List<String> words = WORDS.splitToList(line);
+      if (words.isEmpty() || !words.get(0).equalsIgnoreCase("FROM")) {
+        continue;
+      }
+      int index = 1;
+      while (index < words.size() && words.get(index).startsWith("--")) {
+        index++;
+      }
+      if (index >= words.size()) {
+        continue;
+      }
+      final String image = words.get(index);
+      if (!image.equalsIgnoreCase("scratch")
+          && !stages.contains(image.toLowerCase(Locale.ROOT))) {
+        images.add(image);
+      }
+      if (index + 2 < words.size() && words.get(index + 1).equalsIgnoreCase("AS")) {
+        stages.add(words.get(index + 2).toLowerCase(Locale.ROOT));
+      }
+    }
+    return images;
+  }
+}
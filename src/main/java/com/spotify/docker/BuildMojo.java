@@ -26,6 +26,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
@@ -34,22 +36,30 @@ import com.google.common.collect.Sets;
 import com.spotify.docker.client.AnsiProgressHandler;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.Image;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigException;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValue;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.apache.maven.RepositoryUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.DefaultDependencyResolutionRequest;
+import org.apache.maven.project.DependencyResolutionException;
+import org.apache.maven.project.DependencyResolutionResult;
 import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectDependenciesResolver;
 import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluationException;
-import org.codehaus.plexus.util.DirectoryScanner;
-import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.aether.graph.DependencyFilter;
+import org.eclipse.aether.util.artifact.JavaScopes;
+import org.eclipse.aether.util.filter.ScopeDependencyFilter;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.File;
@@ -60,19 +70,23 @@ import java.net.URLEncoder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 
 import static com.google.common.base.CharMatcher.WHITESPACE;
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Ordering.natural;
 import static com.spotify.docker.Utils.parseImageName;
@@ -106,6 +120,12 @@ public class BuildMojo extends AbstractDockerMojo {
    * Json Object Mapper to encode arguments map 
    */
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  /**
+   * Number of scanned files handed to the stager at once.
+   */
+  private static final int STAGING_BATCH_SIZE = 1024;
+
   
   /**
    * Directory containing the Dockerfile. If the value is not set, the plugin will generate a
@@ -129,6 +149,36 @@ public class BuildMojo extends AbstractDockerMojo {
   @Parameter(property = "pullOnBuild", defaultValue = "false")
   private boolean pullOnBuild;
 
+  /**
+   * Number of seconds after a base image was pulled during which {@code pullOnBuild} does not
+   * pull it again. When the images were pulled are recorded in {@code pullStateFile}. Defaults to
+   * 0, which pulls on every build.
+   */
+  @Parameter(property = "pullOnBuildTtl", defaultValue = "0")
+  private int pullOnBuildTtl;
+
+  /** File to record when base images were pulled in, for {@code pullOnBuildTtl}. */
+  @Parameter(property = "dockerPullStateFile",
+      defaultValue = "${user.home}/.m2/docker-maven-plugin-pulls.json")
+  private String pullStateFile;
+
+  /**
+   * Flag to start pulling the base image in the background while resources are staged, instead of
+   * leaving the pull to the daemon once it has received the build context. Images that exist
+   * locally are only pulled if {@code pullOnBuild} is set. Defaults to true.
+   */
+  @Parameter(property = "dockerPullInParallel", defaultValue = "true")
+  private boolean pullInParallel;
+
+  /**
+   * Flag to resolve the base images of a generated Dockerfile to digests once per Maven session,
+   * and to build from the digest, e.g. {@code FROM busybox@sha256:...}. The first module that uses
+   * a base image pulls it if {@code pullOnBuild} is set, later modules build from the same digest
+   * without asking the registry again. Ignored if dockerDirectory is set. Defaults to false.
+   */
+  @Parameter(property = "dockerPinBaseImage", defaultValue = "false")
+  private boolean pinBaseImage;
+
   /** Set to true to pass the `--no-cache` flag to the Docker daemon when building an image. */
   @Parameter(property = "noCache", defaultValue = "false")
   private boolean noCache;
@@ -165,6 +215,78 @@ public class BuildMojo extends AbstractDockerMojo {
   @Parameter(property = "dockerEntryPoint")
   private String entryPoint;
 
+  /**
+   * Directory of the build context to add the project's runtime dependencies to, e.g. {@code lib}.
+   * The jars are taken from the local repository, so no separate copy of the dependencies is
+   * needed. A generated Dockerfile adds them with a single ADD before all resources, so that the
+   * layer stays cached until a dependency changes. Not set by default.
+   */
+  @Parameter(property = "dockerDependencyDirectory")
+  private String dependencyDirectory;
+
+  /**
+   * Resolves the runtime dependencies when dependencyDirectory or layerResources needs them. The
+   * goal does not require Maven to resolve them up front, so that building an image does not
+   * depend on the other modules of a reactor being installed unless the image contains them.
+   */
+  @Component
+  ProjectDependenciesResolver dependenciesResolver;
+
+  // the resolved runtime dependencies, or null if they have not been needed yet
+  private Set<Artifact> dependencies;
+
+  /**
+   * Directory of the build context to unpack the project's jar into, e.g. {@code app}. The
+   * classes, the other resources and any jars nested in the jar are added as separate layers, so
+   * that a change to a few classes only changes the layer of the classes. Unless entryPoint is
+   * set, a generated Dockerfile runs the main class of the jar with a matching classpath. Not set
+   * by default.
+   */
+  @Parameter(property = "dockerExplodedArtifactDirectory")
+  private String explodedArtifactDirectory;
+
+  /**
+   * Flag to create an AppCDS archive of the classes the application loads while it starts, in a
+   * RUN instruction after all resources have been added, and to use the archive in the
+   * ENTRYPOINT. The ENTRYPOINT has to be the exec form of a java command, such as the one
+   * generated for explodedArtifactDirectory, and the base image needs JDK 13 or later. Ignored if
+   * dockerDirectory is set. Defaults to false.
+   */
+  @Parameter(property = "dockerAppCds", defaultValue = "false")
+  private boolean appCds;
+
+  /**
+   * JVM options for the runs that create the AppCDS archive, e.g.
+   * {@code -Dspring.context.exit=onRefresh} to make the application exit once it has started.
+   */
+  @Parameter(property = "dockerAppCdsTrainingOptions")
+  private List<String> appCdsTrainingOptions = emptyList();
+
+  /**
+   * Seconds after which a run that creates the AppCDS archive is stopped, for applications that
+   * do not exit by themselves. Defaults to 60.
+   */
+  @Parameter(property = "dockerAppCdsTrainingTimeout", defaultValue = "60")
+  private int appCdsTrainingTimeout;
+
+  /**
+   * A stage to build the outputs of the image in, with its own {@code baseImage}, {@code workdir},
+   * {@code runs} and {@code resources}. The files listed in its {@code outputs} are copied into
+   * the image after all resources have been added, so whatever the stage installs to produce them
+   * is left out of the image. Ignored if dockerDirectory is set.
+   */
+  @Parameter
+  private BuilderStage builder;
+
+  /**
+   * Flag to fail the build when an ADD or COPY instruction of the Dockerfile in dockerDirectory
+   * adds files that change with every build, such as the project's jar or the whole build context,
+   * before a RUN instruction. Such instructions are always logged as warnings, because the RUN
+   * instructions after them never come from the layer cache. Defaults to false.
+   */
+  @Parameter(property = "dockerFailOnCacheBusting", defaultValue = "false")
+  private boolean failOnCacheBusting;
+
   /** The volumes for the image */
   @Parameter(property = "dockerVolumes")
   private String[] volumes;
@@ -193,14 +315,116 @@ public class BuildMojo extends AbstractDockerMojo {
 
   private List<String> runList;
 
+  private BaseImagePins pins;
+
+  // whether this build pulls newer base images, which pullOnBuildTtl may prevent
+  private boolean pullNewerImages;
+
+  // whether the newer base images have all been pulled in the background already
+  private boolean baseImagesPulled;
+
   /** Flag to squash all run commands into one layer. Defaults to false. */
   @Parameter(property = "squashRunCommands", defaultValue = "false")
   private boolean squashRunCommands;
 
+  /**
+   * Flag to move the ENV instructions of a generated Dockerfile whose values change with every
+   * commit or build, such as the project version, the git commit id or a build timestamp, after
+   * the ADD and RUN instructions, so that they do not invalidate the layer cache of those. An
+   * environment variable that is used by other instructions is not moved. Defaults to false.
+   */
+  @Parameter(property = "dockerDeferVolatileEnv", defaultValue = "false")
+  private boolean deferVolatileEnv;
+
+  /**
+   * Flag to group the ADD instructions of a generated Dockerfile into layers ordered from the
+   * least to the most frequently changing: release dependencies, snapshot dependencies, other
+   * resources, and finally the project's own jar and classes. Files of a layer that go to the
+   * same directory share a single ADD instruction. Ignored if dockerDirectory is set. Defaults to
+   * false, which adds every file on its own in the order of the resources.
+   */
+  @Parameter(property = "dockerLayerResources", defaultValue = "false")
+  private boolean layerResources;
+
+  /**
+   * Flag to add all files of a generated Dockerfile that share a directory with a single ADD of
+   * the directory, instead of one ADD per file. Directories holding archives, symbolic links or
+   * files that are not being added, such as leftovers of earlier builds, keep one ADD per file.
+   * Ignored if dockerDirectory is set. Defaults to false.
+   */
+  @Parameter(property = "dockerCoalesceResources", defaultValue = "false")
+  private boolean coalesceResources;
+
   /** All resources will be copied to this directory before building the image. */
   @Parameter(property = "project.build.directory")
   protected String buildDirectory;
 
+  /**
+   * Flag to only copy resources that are new or have changed since the previous build. A manifest
+   * of the staged files is kept in {@code buildDirectory} for this purpose. Defaults to false.
+   */
+  @Parameter(property = "incrementalStaging", defaultValue = "false")
+  private boolean incrementalStaging;
+
+  /**
+   * How resources are staged into the docker build directory, either {@code copy}, {@code link},
+   * {@code symlink} or {@code store}. With {@code link} files are hard linked instead of copied,
+   * falling back to a copy for files that live on a different file system than
+   * {@code buildDirectory}. With {@code symlink} the build directory only holds the Dockerfile and
+   * symbolic links to the resources, which are read straight from their source when the build
+   * context is sent to the daemon. With {@code store} every distinct file is copied once into
+   * {@code stagingStore}, shared by all modules of the build, and hard linked from there. Defaults
+   * to {@code copy}.
+   */
+  @Parameter(property = "stagingMode", defaultValue = "copy")
+  private String stagingMode;
+
+  /**
+   * Directory of the content addressed store used when {@code stagingMode} is {@code store}.
+   * Defaults to {@code target/docker-store} of the directory Maven was started in, so that all
+   * modules of a reactor build share it.
+   */
+  @Parameter(property = "stagingStore",
+      defaultValue = "${session.executionRootDirectory}/target/docker-store")
+  private String stagingStore;
+
+  private ResourceStager.Mode resourceStagingMode;
+
+  private FileDigester digester;
+
+  /**
+   * Number of threads used to stage resources into the docker build directory. Directory trees
+   * are split among the threads, the generated Dockerfile does not depend on this setting.
+   * Defaults to 1.
+   */
+  @Parameter(property = "dockerCopyThreads", defaultValue = "1")
+  private int copyThreads;
+
+  /**
+   * Flag to remember which files each resource scan found, and reuse them in the next build as
+   * long as none of the scanned directories have been modified. The cache is kept in
+   * {@code buildDirectory}. Defaults to false.
+   */
+  @Parameter(property = "scanCache", defaultValue = "false")
+  private boolean scanCache;
+
+  /**
+   * Flag to delete files from the docker build directory that the current resources did not
+   * produce, e.g. resources that have been removed or jars of an older version, so that they are
+   * not sent to the daemon as part of the build context. Defaults to false.
+   */
+  @Parameter(property = "pruneStagingDirectory", defaultValue = "false")
+  private boolean pruneStagingDirectory;
+
+  /**
+   * Flag to fingerprint the build context, the Dockerfile and the build parameters, and store the
+   * fingerprint in an image label. If a local image with the same fingerprint already exists, it
+   * is tagged with {@code imageName} and {@code imageTags} instead of building the image again.
+   * Defaults to false.
+   */
+  @Parameter(property = "skipUnchangedBuild", defaultValue = "false")
+  private boolean skipUnchangedBuild;
+
   @Parameter(property = "dockerBuildProfile")
   private String profile;
 
@@ -295,7 +519,7 @@ public class BuildMojo extends AbstractDockerMojo {
     return forceTags;
   }
   
-  private boolean weShouldSkipDockerBuild() {
+  boolean weShouldSkipDockerBuild() {
     if (skipDockerBuild) {
       getLog().info("Property skipDockerBuild is set");
       return true;
@@ -332,6 +556,22 @@ public class BuildMojo extends AbstractDockerMojo {
     }
   }
 
+  /**
+   * Runs the goal without taking the lock that keeps builds in the same JVM apart, for goals that
+   * only take it around each build with {@link #lock()} and {@link #unlock()}.
+   */
+  void executeWithoutLock() throws MojoExecutionException {
+    super.execute();
+  }
+
+  static void lock() {
+    LOCK.lock();
+  }
+
+  static void unlock() {
+    LOCK.unlock();
+  }
+
   @Override
   protected void execute(final DockerClient docker)
       throws MojoExecutionException, GitAPIException, IOException, DockerException,
@@ -394,19 +634,13 @@ public class BuildMojo extends AbstractDockerMojo {
     }
     mavenProject.getProperties().put("imageName", imageName);
 
-    final String destination = getDestination();
-    if (dockerDirectory == null) {
-      final List<String> copiedPaths = copyResources(destination);
-      createDockerFile(destination, copiedPaths);
-    } else {
+    if (dockerDirectory != null) {
       final Resource resource = new Resource();
       resource.setDirectory(dockerDirectory);
       resources.add(resource);
-      copyResources(destination);
     }
 
-    buildImage(docker, destination, buildParams());
-    tagImage(docker, forceTags);
+    stageAndBuild(docker);
 
     final DockerBuildInformation buildInfo = new DockerBuildInformation(imageName, getLog());
 
@@ -433,10 +667,261 @@ public class BuildMojo extends AbstractDockerMojo {
     writeImageInfoFile(buildInfo, tagInfoFile);
   }
 
-  private String getDestination() {
+  /**
+   * Stages the resources, generates the Dockerfile if needed, and builds and tags the image. Can
+   * be called repeatedly once the mojo has been configured by {@link #execute(DockerClient)}.
+   */
+  void stageAndBuild(final DockerClient docker)
+      throws MojoExecutionException, IOException, DockerException, InterruptedException {
+    if (incrementalStaging || skipUnchangedBuild
+        || resourceStagingMode == ResourceStager.Mode.STORE) {
+      digester = FileDigester.load(getDigestCachePath());
+    }
+
+    pins = pinBaseImage && dockerDirectory == null ? BaseImagePins.forSession(session) : null;
+    // the records are kept per daemon, so they need to know which one the build runs on
+    final PullRecords pullRecords = pullOnBuild && pullOnBuildTtl > 0 && dockerUri != null
+                                    ? PullRecords.load(Paths.get(pullStateFile),
+                                                       dockerUri.toString())
+                                    : null;
+    pullNewerImages = pullOnBuild && (pullRecords == null || pullsExpired(pullRecords));
+    final BaseImagePuller puller = startPull(docker);
+
+    if (explodedArtifactDirectory != null) {
+      final File artifact = mavenProject.getArtifact().getFile();
+      if (artifact == null || !artifact.isFile()) {
+        throw new MojoExecutionException(
+            "Cannot unpack the project's jar because it has not been packaged yet");
+      }
+    }
+
+    if (dependencies == null && (dependencyDirectory != null || layerResources)) {
+      dependencies = resolveDependencies();
+    }
+
+    final String destination = getDestination();
+    final StagedContext context = copyResources(destination);
+    if (dockerDirectory == null) {
+      if (pins != null) {
+        // the FROM instructions need the digests
+        if (puller != null) {
+          puller.await();
+        }
+        pinBaseImages(docker);
+      }
+      createDockerFile(destination, context);
+    } else {
+      analyzeDockerfile(destination);
+    }
+    baseImagesPulled = puller != null && puller.await() && pullNewerImages
+                       && !hasUnresolvedBaseImages();
+
+    final List<DockerClient.BuildParam> buildParams = buildParams();
+    final List<String> baseImageIds = skipUnchangedBuild ? baseImageIds(docker) : null;
+    final String existingImage;
+    if (baseImageIds != null) {
+      final String fingerprint = ContextFingerprint.compute(
+          Paths.get(destination), buildParams, baseImageIds, digester);
+      existingImage = findImage(docker, fingerprint);
+      buildParams.add(DockerClient.BuildParam.create("labels", URLEncoder.encode(
+          OBJECT_MAPPER.writeValueAsString(
+              ImmutableMap.of(ContextFingerprint.LABEL, fingerprint)), "UTF-8")));
+    } else {
+      existingImage = null;
+    }
+    if (digester != null) {
+      getLog().info(digester.statistics());
+      digester.save();
+    }
+    if (existingImage != null) {
+      getLog().info(String.format("Image %s has the same fingerprint, tagging it as %s instead "
+                                  + "of building", existingImage, imageName));
+      docker.tag(existingImage, imageName, true);
+    } else {
+      buildImage(docker, destination,
+                 buildParams.toArray(new DockerClient.BuildParam[buildParams.size()]));
+    }
+    // the images have been pulled, either in the background or by the daemon
+    if (pullRecords != null && pullNewerImages && (baseImagesPulled || existingImage == null)) {
+      pullRecords.record(baseImagesToPull(), System.currentTimeMillis());
+      pullRecords.save();
+    }
+    tagImage(docker, forceTags);
+  }
+
+  private boolean pullsExpired(final PullRecords pullRecords) throws IOException {
+    final Set<String> images = baseImagesToPull();
+    if (images.isEmpty() || hasUnresolvedBaseImages()) {
+      // there is no telling when an image that depends on build arguments was pulled
+      getLog().debug("Pulling base images, not all of them are known before the build");
+      return true;
+    }
+    final List<String> expired = pullRecords.expired(
+        images, TimeUnit.SECONDS.toMillis(pullOnBuildTtl), System.currentTimeMillis());
+    if (expired.isEmpty()) {
+      getLog().info(String.format("Not pulling base images, they were pulled less than %d seconds "
+                                  + "ago (pullOnBuildTtl)", pullOnBuildTtl));
+      return false;
+    }
+    getLog().debug("Base images to pull: " + expired);
+    return true;
+  }
+
+  /**
+   * Resolves the compile and runtime scoped dependencies of the project, including transitive
+   * ones.
+   */
+  private Set<Artifact> resolveDependencies() throws MojoExecutionException {
+    final DependencyFilter filter =
+        new ScopeDependencyFilter(Arrays.asList(JavaScopes.COMPILE, JavaScopes.RUNTIME), null);
+    final DefaultDependencyResolutionRequest request =
+        new DefaultDependencyResolutionRequest(mavenProject, session.getRepositorySession());
+    request.setResolutionFilter(filter);
+    final DependencyResolutionResult result;
+    try {
+      result = dependenciesResolver.resolve(request);
+    } catch (DependencyResolutionException e) {
+      throw new MojoExecutionException("Failed to resolve the runtime dependencies", e);
+    }
+
+    final Set<Artifact> resolved = new LinkedHashSet<>();
+    if (result.getDependencyGraph() != null) {
+      RepositoryUtils.toArtifacts(resolved, result.getDependencyGraph().getChildren(),
+                                  Collections.singletonList(mavenProject.getId()), filter);
+    }
+    return resolved;
+  }
+
+  private void analyzeDockerfile(final String destination)
+      throws IOException, MojoExecutionException {
+    if (!Files.isRegularFile(Paths.get(destination, "Dockerfile"))) {
+      return;
+    }
+    // the analyzer only looks for the project's own files, so it needs no resolved dependencies
+    final ResourceLayers layers =
+        new ResourceLayers(mavenProject, Collections.<Artifact>emptySet());
+    final List<String> findings = new DockerfileAnalyzer(Paths.get(destination), layers).analyze();
+    for (final String finding : findings) {
+      getLog().warn("Dockerfile: " + finding);
+    }
+    if (failOnCacheBusting && !findings.isEmpty()) {
+      throw new MojoExecutionException(String.format(
+          "The Dockerfile has %d instructions that invalidate the layer cache on every build, "
+          + "move them after the RUN instructions", findings.size()));
+    }
+  }
+
+  private BaseImagePuller startPull(final DockerClient docker) throws IOException {
+    if (!pullInParallel) {
+      return null;
+    }
+    final BaseImagePuller puller = new BaseImagePuller(docker, getLog());
+    puller.start(baseImagesToPull(), pullNewerImages, pins);
+    return puller;
+  }
+
+  /**
+   * Returns whether the Dockerfile builds from images that depend on build arguments, which are
+   * only known to the daemon.
+   */
+  private boolean hasUnresolvedBaseImages() throws IOException {
+    return dockerDirectory != null
+           && BaseImagePuller.hasUnresolvedBaseImages(Paths.get(dockerDirectory, "Dockerfile"));
+  }
+
+  private Set<String> baseImagesToPull() throws IOException {
+    return dockerDirectory == null
+           ? baseImages()
+           : BaseImagePuller.parseBaseImages(Paths.get(dockerDirectory, "Dockerfile"));
+  }
+
+  /**
+   * Returns the base images of a generated Dockerfile, in the order they are needed.
+   */
+  private Set<String> baseImages() {
+    // the builder stage comes first, so its base image is needed first
+    final Set<String> images = Sets.newLinkedHashSet();
+    if (builder != null) {
+      images.add(builder.getBaseImage());
+    }
+    images.add(baseImage);
+    return images;
+  }
+
+  private void pinBaseImages(final DockerClient docker) throws InterruptedException {
+    for (final String image : baseImages()) {
+      try {
+        pins.resolve(docker, image, pullNewerImages, getLog());
+      } catch (DockerException e) {
+        getLog().warn("Cannot pin base image " + image + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Returns the reference to build from for {@code image}, its digest if it has been pinned.
+   */
+  private String from(final String image) {
+    final String pinned = pins == null ? null : pins.get(image);
+    return pinned == null ? image : pinned;
+  }
+
+  /**
+   * Returns whether the daemon is asked to pull newer base images during the build.
+   */
+  private boolean daemonPullsBaseImages() {
+    // pinned base images have been pulled by the first build of the session that used them, and
+    // others may have been pulled in the background while staging
+    return pullNewerImages && !baseImagesPinned() && !baseImagesPulled;
+  }
+
+  private boolean baseImagesPinned() {
+    if (pins == null) {
+      return false;
+    }
+    for (final String image : baseImages()) {
+      if (!from(image).contains("@")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  String getDestination() {
     return Paths.get(buildDirectory, "docker").toString();
   }
 
+  List<Resource> getResources() {
+    if (builder == null) {
+      return resources;
+    }
+    final List<Resource> all = newArrayList(resources);
+    all.addAll(builder.getResources());
+    return all;
+  }
+
+  /**
+   * Turns on incremental staging, the scan cache and pruning, for goals that stage resources
+   * repeatedly.
+   */
+  void enableIncrementalStaging() {
+    incrementalStaging = true;
+    scanCache = true;
+    pruneStagingDirectory = true;
+  }
+
+  private Path getStagingManifestPath() {
+    return Paths.get(buildDirectory, "docker-staging.json");
+  }
+
+  private Path getDigestCachePath() {
+    return Paths.get(buildDirectory, "docker-digests.json");
+  }
+
+  private Path getScanCachePath() {
+    return Paths.get(buildDirectory, "docker-scan-cache.json");
+  }
+
   private File createImageArtifact(final Artifact mainArtifact,
                                    final DockerBuildInformation buildInfo) throws IOException {
     final String fileName = MessageFormat.format(
@@ -592,10 +1077,25 @@ public class BuildMojo extends AbstractDockerMojo {
   }
 
   private void validateParameters() throws MojoExecutionException {
+    resourceStagingMode =
+        stagingMode == null ? ResourceStager.Mode.COPY : ResourceStager.Mode.parse(stagingMode);
+    if (resourceStagingMode == null) {
+      throw new MojoExecutionException(
+          "Invalid stagingMode " + stagingMode + ", must be one of copy, link, symlink or store");
+    }
+    if (resourceStagingMode == ResourceStager.Mode.SYMLINK && incrementalStaging) {
+      // hashing the sources for the manifest would read every file a second time
+      getLog().warn("Ignoring incrementalStaging because stagingMode is " + stagingMode);
+      incrementalStaging = false;
+    }
+
     if (dockerDirectory == null) {
       if (baseImage == null) {
         throw new MojoExecutionException("Must specify baseImage if dockerDirectory is null");
       }
+      if (builder != null && builder.getBaseImage() == null) {
+        throw new MojoExecutionException("Must specify the baseImage of the builder stage");
+      }
     } else {
       if (baseImage != null) {
         getLog().warn("Ignoring baseImage because dockerDirectory is set");
@@ -618,6 +1118,10 @@ public class BuildMojo extends AbstractDockerMojo {
       if (user != null) {
         getLog().warn("Ignoring user because dockerDirectory is set");
       }
+      if (builder != null) {
+        getLog().warn("Ignoring builder because dockerDirectory is set");
+        builder = null;
+      }
     }
   }
 
@@ -629,6 +1133,38 @@ public class BuildMojo extends AbstractDockerMojo {
     getLog().info("Built " + imageName);
   }
 
+  /**
+   * Returns the IDs of the base images the build uses, or null if they are only known once the
+   * daemon has pulled them or resolved build arguments, in which case an unchanged build context
+   * does not mean an unchanged image.
+   */
+  private List<String> baseImageIds(final DockerClient docker)
+      throws IOException, DockerException, InterruptedException {
+    if (daemonPullsBaseImages() || hasUnresolvedBaseImages()) {
+      getLog().info("Not looking for an image with the same fingerprint, as the base images are "
+                    + "not known before the build");
+      return null;
+    }
+    final List<String> ids = newArrayList();
+    for (final String image : baseImagesToPull()) {
+      try {
+        ids.add(docker.inspectImage(from(image)).id());
+      } catch (ImageNotFoundException e) {
+        getLog().info("Not looking for an image with the same fingerprint, as base image "
+                      + image + " has not been pulled yet");
+        return null;
+      }
+    }
+    return ids;
+  }
+
+  private String findImage(final DockerClient docker, final String fingerprint)
+      throws DockerException, InterruptedException {
+    final List<Image> images = docker.listImages(
+        DockerClient.ListImagesParam.withLabel(ContextFingerprint.LABEL, fingerprint));
+    return images.isEmpty() ? null : images.get(0).id();
+  }
+
   private void tagImage(final DockerClient docker, boolean forceTags)
       throws DockerException, InterruptedException, MojoExecutionException {
     final String imageNameWithoutTag = parseImageName(imageName)[0];
@@ -640,22 +1176,42 @@ public class BuildMojo extends AbstractDockerMojo {
     }
   }
 
-  private void createDockerFile(final String directory, final List<String> filesToAdd)
+  private void createDockerFile(final String directory, final StagedContext context)
       throws IOException {
 
     final List<String> commands = newArrayList();
+    if (builder != null) {
+      commands.add(String.format("FROM %s AS %s", from(builder.getBaseImage()),
+                                 BuilderStage.NAME));
+      if (builder.getWorkdir() != null) {
+        commands.add("WORKDIR " + builder.getWorkdir());
+      }
+      for (final StagedPath file : context.builderResources) {
+        final StagedPath source = new StagedPath(BuilderStage.NAME + "/" + file.path, file.file);
+        commands.add(String.format("ADD %s %s", escapeSource(source), normalizeDest(file)));
+      }
+      addRunInstructions(commands, builder.getRuns());
+    }
     if (baseImage != null) {
-      commands.add("FROM " + baseImage);
+      commands.add("FROM " + from(baseImage));
     }
     if (maintainer != null) {
       commands.add("MAINTAINER " + maintainer);
     }
 
+    final List<String> deferredEnv = newArrayList();
     if (env != null) {
       final List<String> sortedKeys = Ordering.natural().sortedCopy(env.keySet());
+      final Set<String> deferred =
+          deferVolatileEnv ? volatileEnv() : Collections.<String>emptySet();
       for (final String key : sortedKeys) {
         final String value = env.get(key);
-        commands.add(String.format("ENV %s %s", key, value));
+        final String instruction = String.format("ENV %s %s", key, value);
+        if (deferred.contains(key)) {
+          deferredEnv.add(instruction);
+        } else {
+          commands.add(instruction);
+        }
       }
     }
 
@@ -663,22 +1219,61 @@ public class BuildMojo extends AbstractDockerMojo {
       commands.add("WORKDIR " + workdir);
     }
 
-    for (final String file : filesToAdd) {
-      // The dollar sign in files has to be escaped because docker interprets it as variable
-      commands.add(
-              String.format("ADD %s %s", file.replaceAll("\\$", "\\\\\\$"), normalizeDest(file)));
+    if (!context.dependencies.isEmpty()) {
+      final List<String> sources = newArrayList();
+      for (final StagedPath dependency : context.dependencies) {
+        sources.add(escapeSource(dependency));
+      }
+      commands.add("ADD " + Joiner.on(" \\\n\t").join(sources) + " "
+                   + separatorsToUnix(dependencyDirectory).replaceAll("/+$", "") + "/");
+    }
+    for (final StagedPath library : context.artifactLibraries) {
+      commands.add(String.format("ADD %s %s", escapeSource(library), normalizeDest(library)));
+    }
+
+    final List<String> adds = addInstructions(context.resources, null);
+    if (coalesceResources) {
+      final List<String> coalesced =
+          addInstructions(context.resources, DirectoryCoalescer.scan(Paths.get(directory)));
+      getLog().info(String.format("Resources are added in %d layers instead of %d",
+                                  coalesced.size(), adds.size()));
+      commands.addAll(coalesced);
+    } else {
+      commands.addAll(adds);
     }
 
-    if (runList != null && !runList.isEmpty()) {
-      if (squashRunCommands) {
-        commands.add("RUN " + Joiner.on(" &&\\\n\t").join(runList));
+    // the classes of the project change most often, so they come last
+    for (final StagedPath part : context.artifact) {
+      commands.add(String.format("ADD %s %s", escapeSource(part), normalizeDest(part)));
+    }
+
+    if (builder != null) {
+      commands.addAll(builder.copyInstructions());
+    }
+
+    if (runList != null) {
+      addRunInstructions(commands, runList);
+    }
+
+    String entryPoint = this.entryPoint != null ? this.entryPoint : artifactEntryPoint(context);
+    if (appCds) {
+      final AppCds cds = AppCds.forEntryPoint(entryPoint);
+      if (cds == null) {
+        getLog().warn("Not creating an AppCDS archive because the ENTRYPOINT is not the exec form "
+                      + "of a java command");
+      } else if (!cds.classPathDirectories().isEmpty()) {
+        getLog().warn("Not creating an AppCDS archive because the class path holds directories, "
+                      + "which the JVM cannot archive classes from: "
+                      + Joiner.on(", ").join(cds.classPathDirectories()));
       } else {
-        for (final String run : runList) {
-          commands.add("RUN " + run);
-        }
+        // a layer of its own, only rebuilt when the classes or the commands before it change
+        commands.add(cds.trainingRun(appCdsTrainingOptions, appCdsTrainingTimeout));
+        entryPoint = cds.entryPoint();
       }
     }
 
+    commands.addAll(deferredEnv);
+
     if (healthcheck != null && healthcheck.containsKey("cmd")) {
       final StringBuffer healthcheckBuffer = new StringBuffer("HEALTHCHECK ");
       if (healthcheck.containsKey("options")) {
@@ -747,12 +1342,142 @@ public class BuildMojo extends AbstractDockerMojo {
     getLog().debug("Writing Dockerfile:" + System.lineSeparator() +
                    Joiner.on(System.lineSeparator()).join(commands));
 
-    // this will overwrite an existing file
+    // this will overwrite an existing file, unless it already holds the same commands, so that
+    // its timestamp only changes when its content does
+    final Path dockerfile = Paths.get(directory, "Dockerfile");
+    final byte[] content = (Joiner.on(System.lineSeparator()).join(commands)
+                            + System.lineSeparator()).getBytes(UTF_8);
+    if (Files.isRegularFile(dockerfile) && Arrays.equals(content, Files.readAllBytes(dockerfile))) {
+      getLog().debug("Dockerfile is unchanged");
+      return;
+    }
     Files.createDirectories(Paths.get(directory));
-    Files.write(Paths.get(directory, "Dockerfile"), commands, UTF_8);
+    Files.write(dockerfile, content);
+  }
+
+  /**
+   * Returns the environment variables whose values change with every commit or build, and that
+   * no other instruction refers to.
+   */
+  private Set<String> volatileEnv() {
+    final VolatileValues values =
+        VolatileValues.of(mavenProject, session == null ? null : session.getStartTime());
+    final List<String> references = newArrayList(env.values());
+    if (runList != null) {
+      references.addAll(runList);
+    }
+    references.add(nullToEmpty(workdir));
+    references.add(nullToEmpty(user));
+
+    final Set<String> keys = Sets.newTreeSet();
+    for (final Map.Entry<String, String> entry : env.entrySet()) {
+      final String expression = values.find(entry.getValue());
+      if (expression == null) {
+        continue;
+      }
+      final Pattern reference =
+          Pattern.compile("\\$(\\{" + Pattern.quote(entry.getKey()) + "[}:]|"
+                          + Pattern.quote(entry.getKey()) + "\\b)");
+      boolean referenced = false;
+      for (final String text : references) {
+        referenced |= reference.matcher(text).find();
+      }
+      if (referenced) {
+        getLog().info(String.format("Not moving ENV %s, whose value contains %s, because it is "
+                                    + "used by other instructions", entry.getKey(), expression));
+      } else {
+        getLog().info(String.format("Moving ENV %s after the ADD and RUN instructions because its "
+                                    + "value contains %s", entry.getKey(), expression));
+        keys.add(entry.getKey());
+      }
+    }
+    return keys;
   }
 
-  private String normalizeDest(final String filePath) {
+  private void addRunInstructions(final List<String> commands, final List<String> runs) {
+    if (runs.isEmpty()) {
+      return;
+    }
+    if (squashRunCommands) {
+      commands.add("RUN " + Joiner.on(" &&\\\n\t").join(runs));
+    } else {
+      for (final String run : runs) {
+        commands.add("RUN " + run);
+      }
+    }
+  }
+
+  private List<String> addInstructions(final List<StagedPath> filesToAdd,
+                                       final DirectoryCoalescer coalescer) {
+    final List<String> adds = newArrayList();
+    if (!layerResources) {
+      for (final StagedPath file : coalesce(filesToAdd, coalescer)) {
+        adds.add(String.format("ADD %s %s", escapeSource(file), normalizeDest(file)));
+      }
+      return adds;
+    }
+
+    final ResourceLayers layers = new ResourceLayers(mavenProject, dependencies);
+    final Map<ResourceLayers.Layer, List<StagedPath>> layered =
+        Maps.newEnumMap(ResourceLayers.Layer.class);
+    for (final ResourceLayers.Layer layer : ResourceLayers.Layer.values()) {
+      layered.put(layer, Lists.<StagedPath>newArrayList());
+    }
+    for (final StagedPath file : filesToAdd) {
+      layered.get(file.file ? layers.classify(file.path) : ResourceLayers.Layer.RESOURCES)
+          .add(file);
+    }
+
+    for (final List<StagedPath> layer : layered.values()) {
+      // one ADD per destination, destinations in the order they first appear
+      final LinkedListMultimap<String, String> sources = LinkedListMultimap.create();
+      for (final StagedPath file : coalesce(layer, coalescer)) {
+        sources.put(normalizeDest(file), escapeSource(file));
+      }
+      for (final String dest : sources.keySet()) {
+        final List<String> files = sources.get(dest);
+        // docker requires the destination of several sources to be a directory ending with /
+        final String dir = files.size() > 1 && !dest.endsWith("/") ? dest + "/" : dest;
+        adds.add("ADD " + Joiner.on(" \\\n\t").join(files) + " " + dir);
+      }
+    }
+    return adds;
+  }
+
+  /**
+   * Replaces files by the directories that hold them, where {@code coalescer} allows it.
+   */
+  private static List<StagedPath> coalesce(final List<StagedPath> files,
+                                           final DirectoryCoalescer coalescer) {
+    if (coalescer == null) {
+      return files;
+    }
+    final List<String> paths = newArrayList();
+    for (final StagedPath file : files) {
+      if (file.file) {
+        paths.add(file.path);
+      }
+    }
+    final Map<String, String> directories = coalescer.coalesce(paths);
+    final List<StagedPath> coalesced = newArrayList();
+    final Set<String> added = Sets.newHashSet();
+    for (final StagedPath file : files) {
+      final String directory = file.file ? directories.get(file.path) : null;
+      if (directory == null) {
+        coalesced.add(file);
+      } else if (added.add(directory)) {
+        coalesced.add(new StagedPath(directory, false));
+      }
+    }
+    return coalesced;
+  }
+
+  private static String escapeSource(final StagedPath staged) {
+    // The dollar sign in files has to be escaped because docker interprets it as variable
+    return staged.path.replaceAll("\\$", "\\\\\\$");
+  }
+
+  private String normalizeDest(final StagedPath staged) {
     // if the path is a file (i.e. not a directory), remove the last part of the path so that we
     // end up with:
     //   ADD foo/bar.txt foo/
@@ -762,13 +1487,12 @@ public class BuildMojo extends AbstractDockerMojo {
     // automatically expand the archive into the "dest", so
     //  ADD foo/x.tar.gz foo/x.tar.gz
     // results in x.tar.gz being expanded *under* the path foo/x.tar.gz/stuff...
-    final File file = new File(filePath);
+    final File file = new File(staged.path);
 
     final String dest;
-    // need to know the path relative to destination to test if it is a file or directory,
-    // but only remove the last part of the path if there is a parent (i.e. don't remove a
-    // parent path segment from "file.txt")
-    if (new File(getDestination(), filePath).isFile()) {
+    // whether the path is a file is known from staging, but only remove the last part of the path
+    // if there is a parent (i.e. don't remove a parent path segment from "file.txt")
+    if (staged.file) {
       if (file.getParent() != null) {
         // remove file part of path
         dest = separatorsToUnix(file.getParent()) + "/";
@@ -783,71 +1507,243 @@ public class BuildMojo extends AbstractDockerMojo {
     return dest;
   }
 
-  @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-  private List<String> copyResources(String destination) throws IOException {
+  /**
+   * Stages the resources, the runtime dependencies if {@code dependencyDirectory} is set, and the
+   * unpacked jar of the project if {@code explodedArtifactDirectory} is set.
+   */
+  private StagedContext copyResources(final String destination) throws IOException {
+
+    final StagedContext context = new StagedContext();
+    final List<StagedPath> allCopiedPaths = context.resources;
+    final StagingManifest manifest =
+        incrementalStaging ? StagingManifest.load(getStagingManifestPath(), digester) : null;
+    final ScanCache cache = scanCache ? ScanCache.load(getScanCachePath()) : null;
 
-    final List<String> allCopiedPaths = newArrayList();
+    final ContentStore store = resourceStagingMode == ResourceStager.Mode.STORE
+                               ? new ContentStore(Paths.get(stagingStore), digester) : null;
 
-    for (final Resource resource : resources) {
-      final File source = new File(resource.getDirectory());
-      final List<String> includes = resource.getIncludes();
-      final List<String> excludes = resource.getExcludes();
-      final DirectoryScanner scanner = new DirectoryScanner();
-      scanner.setBasedir(source);
-      // must pass null if includes/excludes is empty to get default filters.
-      // passing zero length array forces it to have no filters at all.
-      scanner.setIncludes(includes.isEmpty() ? null
-                                             : includes.toArray(new String[includes.size()]));
-      scanner.setExcludes(excludes.isEmpty() ? null
-                                             : excludes.toArray(new String[excludes.size()]));
-      scanner.scan();
+    try (ResourceStager stager = new ResourceStager(Paths.get(destination), resourceStagingMode,
+                                                    manifest, store, copyThreads, getLog())) {
+      if (dependencyDirectory != null) {
+        context.dependencies.addAll(stageDependencies(stager, destination));
+      }
+      if (explodedArtifactDirectory != null) {
+        stageArtifact(stager, destination, context);
+      }
 
-      final String[] includedFiles = scanner.getIncludedFiles();
-      if (includedFiles.length == 0) {
-        getLog().info("No resources will be copied, no files match specified patterns");
+      for (final Resource resource : resources) {
+        allCopiedPaths.addAll(stageResource(stager, cache, resource, destination));
       }
+      if (builder != null) {
+        for (final Resource resource : builder.getResources()) {
+          context.builderResources.addAll(stageResource(
+              stager, cache, resource, Paths.get(destination, BuilderStage.NAME).toString()));
+        }
+      }
+
+      if (pruneStagingDirectory) {
+        prune(stager, Paths.get(destination));
+      }
+      stager.finish();
+    }
+    if (cache != null) {
+      cache.save();
+    }
+
+    return context;
+  }
+
+  /**
+   * Stages the files of {@code resource} below {@code destination}, and returns their paths
+   * relative to {@code destination}.
+   */
+  private List<StagedPath> stageResource(final ResourceStager stager, final ScanCache cache,
+                                         final Resource resource, final String destination)
+      throws IOException {
+    final Path source = Paths.get(resource.getDirectory());
+    final List<String> includes = resource.getIncludes();
+    final List<String> excludes = resource.getExcludes();
 
-      final List<String> copiedPaths = newArrayList();
+    final List<StagedPath> copiedPaths = newArrayList();
 
-      final boolean copyWholeDir = includes.isEmpty() && excludes.isEmpty() &&
-                             resource.getTargetPath() != null;
+    final boolean copyWholeDir = includes.isEmpty() && excludes.isEmpty() &&
+                                 resource.getTargetPath() != null;
 
-      // file location relative to docker directory, used later to generate Dockerfile
-      final String targetPath = resource.getTargetPath() == null ? "" : resource.getTargetPath();
+    // file location relative to docker directory, used later to generate Dockerfile
+    final String targetPath = resource.getTargetPath() == null ? "" : resource.getTargetPath();
+    final Path destPath = Paths.get(destination, targetPath);
 
-      if (copyWholeDir) {
-        final Path destPath = Paths.get(destination, targetPath);
-        getLog().info(String.format("Copying dir %s -> %s", source, destPath));
+    if (copyWholeDir) {
+      getLog().info(String.format("Copying dir %s -> %s", source, destPath));
 
-        Files.createDirectories(destPath);
-        FileUtils.copyDirectoryStructure(source, destPath.toFile());
-        copiedPaths.add(separatorsToUnix(targetPath));
-      } else {
-        for (final String included : includedFiles) {
-          final Path sourcePath = Paths.get(resource.getDirectory()).resolve(included);
-          final Path destPath = Paths.get(destination, targetPath).resolve(included);
-          getLog().info(String.format("Copying %s -> %s", sourcePath, destPath));
-          // ensure all directories exist because copy operation will fail if they don't
-          Files.createDirectories(destPath.getParent());
-          Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING,
-                     StandardCopyOption.COPY_ATTRIBUTES);
-
-          copiedPaths.add(separatorsToUnix(Paths.get(targetPath).resolve(included).toString()));
+      Files.createDirectories(destPath);
+      stager.stageDirectory(source, destPath);
+      copiedPaths.add(new StagedPath(separatorsToUnix(targetPath), false));
+    } else {
+      // files are staged in batches while the tree is walked, so that only the paths needed
+      // for the Dockerfile are held in memory
+      final List<String> batch = newArrayList();
+      final ResourceScanner.Visitor visitor = new ResourceScanner.Visitor() {
+        @Override
+        public void visitFile(final String path) throws IOException {
+          batch.add(path);
+          copiedPaths.add(new StagedPath(
+              separatorsToUnix(Paths.get(targetPath).resolve(path).toString()), true));
+          if (batch.size() == STAGING_BATCH_SIZE) {
+            stager.stageFiles(source, destPath, batch);
+            batch.clear();
+          }
         }
+      };
+      final ResourceScanner scanner = newScanner(resource);
+      final List<String> cached = cache == null ? null : cache.get(source, scanner, targetPath);
+      if (cached != null) {
+        getLog().debug(String.format("Scan cache hit for %s", source));
+        for (final String path : cached) {
+          visitor.visitFile(path);
+        }
+      } else if (cache != null) {
+        getLog().debug(String.format("Scan cache miss for %s", source));
+        final long started = System.currentTimeMillis();
+        final List<String> found = newArrayList();
+        final ResourceScanner.Visitor recorder = new ResourceScanner.Visitor() {
+          @Override
+          public void visitFile(final String path) throws IOException {
+            found.add(path);
+            visitor.visitFile(path);
+          }
+        };
+        final Map<String, Long> directories = scanner.scan(source, recorder);
+        cache.put(source, scanner, targetPath, started, directories, found);
+      } else {
+        scanner.scan(source, visitor);
+      }
+      stager.stageFiles(source, destPath, batch);
+
+      if (copiedPaths.isEmpty()) {
+        getLog().info("No resources will be copied, no files match specified patterns");
+      }
+    }
+
+    // The order in which files are found while walking the resource directory depends on the
+    // file system. This causes the ADD statements in the generated Dockerfile to appear in a
+    // different order. We want to avoid this so each run of the plugin always generates the
+    // same Dockerfile, which also makes testing easier. Sort the list of paths for each
+    // resource before returning it. This way we follow the ordering of the resources in the pom,
+    // while making sure all the paths of each resource are always in the same order.
+    Collections.sort(copiedPaths, StagedPath.BY_PATH);
+    return copiedPaths;
+  }
+
+  /**
+   * Creates the scanner that finds the files of {@code resource} to stage.
+   */
+  ResourceScanner newScanner(final Resource resource) throws IOException {
+    // the daemon would drop files matched by .dockerignore from the context anyway, so there is
+    // no point in staging them
+    final DockerIgnore dockerIgnore = resource.getDirectory().equals(dockerDirectory)
+                                      ? DockerIgnore.load(Paths.get(resource.getDirectory()))
+                                      : null;
+    return new ResourceScanner(resource.getIncludes(), resource.getExcludes(), dockerIgnore);
+  }
+
+  private void stageArtifact(final ResourceStager stager, final String destination,
+                             final StagedContext context) throws IOException {
+    final Path exploded = Paths.get(buildDirectory, "docker-exploded");
+    context.mainClass =
+        new ArtifactExploder(mavenProject.getArtifact().getFile().toPath()).explode(exploded);
+    for (final String part : Arrays.asList(ArtifactExploder.LIB, ArtifactExploder.RESOURCES,
+                                           ArtifactExploder.CLASSES)) {
+      final Path source = exploded.resolve(part);
+      if (Files.isDirectory(source)) {
+        final Path target = Paths.get(destination, explodedArtifactDirectory, part);
+        Files.createDirectories(target);
+        stager.stageDirectory(source, target);
+        final StagedPath staged = new StagedPath(
+            separatorsToUnix(Paths.get(explodedArtifactDirectory, part).toString()), false);
+        (part.equals(ArtifactExploder.LIB) ? context.artifactLibraries : context.artifact)
+            .add(staged);
+      }
+    }
+  }
+
+  /**
+   * @return an ENTRYPOINT that runs the main class of the unpacked jar, or {@code null}
+   */
+  private String artifactEntryPoint(final StagedContext context) {
+    if (explodedArtifactDirectory == null) {
+      return null;
+    }
+    if (context.mainClass == null) {
+      getLog().warn("Not generating an ENTRYPOINT because the project's jar has no Main-Class");
+      return null;
+    }
+    final List<String> classpath = newArrayList();
+    for (final StagedPath part : context.artifact) {
+      classpath.add(part.path);
+    }
+    for (final StagedPath library : context.artifactLibraries) {
+      classpath.add(library.path + "/*");
+    }
+    if (!context.dependencies.isEmpty()) {
+      classpath.add(separatorsToUnix(dependencyDirectory).replaceAll("/*$", "") + "/*");
+    }
+    return String.format("[\"java\", \"-cp\", \"%s\", \"%s\"]",
+                         Joiner.on(':').join(classpath), context.mainClass);
+  }
+
+  private List<StagedPath> stageDependencies(final ResourceStager stager,
+                                             final String destination) throws IOException {
+    final List<Artifact> packaged = newArrayList();
+    final Set<String> names = Sets.newHashSet();
+    final Set<String> duplicates = Sets.newHashSet();
+    for (final Artifact artifact : dependencies) {
+      if (!artifact.getArtifactHandler().isAddedToClasspath()) {
+        continue;
       }
+      if (artifact.getFile() == null || !artifact.getFile().isFile()) {
+        // e.g. a module of the reactor that has only been compiled, not packaged
+        getLog().warn("Not adding dependency " + artifact + " that has not been packaged");
+        continue;
+      }
+      packaged.add(artifact);
+      if (!names.add(artifact.getFile().getName())) {
+        duplicates.add(artifact.getFile().getName());
+      }
+    }
+    final Map<String, Artifact> artifacts = Maps.newTreeMap();
+    for (final Artifact artifact : packaged) {
+      final String name = artifact.getFile().getName();
+      // artifacts of different groups may have the same file name
+      artifacts.put(duplicates.contains(name) ? artifact.getGroupId() + "-" + name : name,
+                    artifact);
+    }
 
-      // The list of included files returned from DirectoryScanner can be in a different order
-      // each time. This causes the ADD statements in the generated Dockerfile to appear in a
-      // different order. We want to avoid this so each run of the plugin always generates the same
-      // Dockerfile, which also makes testing easier. Sort the list of paths for each resource
-      // before adding it to the allCopiedPaths list. This way we follow the ordering of the
-      // resources in the pom, while making sure all the paths of each resource are always in the
-      // same order.
-      Collections.sort(copiedPaths);
-      allCopiedPaths.addAll(copiedPaths);
+    // sorted by name, so that the ADD instruction only changes when the dependencies do
+    final List<StagedPath> staged = newArrayList();
+    final Path target = Paths.get(destination, dependencyDirectory);
+    for (final Map.Entry<String, Artifact> artifact : artifacts.entrySet()) {
+      stager.stageFile(artifact.getValue().getFile().toPath(), target.resolve(artifact.getKey()));
+      staged.add(new StagedPath(
+          separatorsToUnix(Paths.get(dependencyDirectory, artifact.getKey()).toString()), true));
     }
+    return staged;
+  }
 
-    return allCopiedPaths;
+  private void prune(final ResourceStager stager, final Path destination) throws IOException {
+    final Path normalizedDestination = destination.toAbsolutePath().normalize();
+    for (final Resource resource : getResources()) {
+      if (Paths.get(resource.getDirectory()).toAbsolutePath().normalize()
+          .startsWith(normalizedDestination)) {
+        getLog().warn(String.format(
+            "Not pruning %s because resource directory %s is inside it",
+            destination, resource.getDirectory()));
+        return;
+      }
+    }
+    // a generated Dockerfile is not staged, but will be written again right after
+    stager.prune(dockerDirectory == null ? Collections.singleton("Dockerfile")
+                                         : Collections.<String>emptySet());
   }
 
   /**
@@ -863,10 +1759,10 @@ public class BuildMojo extends AbstractDockerMojo {
     return path.replace(WINDOWS_SEPARATOR, UNIX_SEPARATOR);
   }
 
-  private DockerClient.BuildParam[] buildParams() 
+  private List<DockerClient.BuildParam> buildParams() 
     throws UnsupportedEncodingException, JsonProcessingException {
     final List<DockerClient.BuildParam> buildParams = Lists.newArrayList();
-    if (pullOnBuild) {
+    if (daemonPullsBaseImages()) {
       buildParams.add(DockerClient.BuildParam.pullNewerImage());
     }
     if (noCache) {
@@ -882,8 +1778,44 @@ public class BuildMojo extends AbstractDockerMojo {
     if (!isNullOrEmpty(network)) {
     	buildParams.add(DockerClient.BuildParam.create("networkmode", network));
     }
-    return buildParams.toArray(new DockerClient.BuildParam[buildParams.size()]);
+    return buildParams;
+  }
+
+  /**
+   * Everything staged for a build, grouped by how it is added to a generated Dockerfile.
+   */
+  static class StagedContext {
+
+    private final List<StagedPath> dependencies = newArrayList();
+    private final List<StagedPath> artifactLibraries = newArrayList();
+    private final List<StagedPath> resources = newArrayList();
+    // resources and classes of the unpacked jar, in that order
+    private final List<StagedPath> artifact = newArrayList();
+    private String mainClass;
+    // relative to the directory of the builder stage
+    private final List<StagedPath> builderResources = newArrayList();
   }
 
+  /**
+   * A path added to the generated Dockerfile, relative to the docker directory, and whether it is
+   * a single file or a whole directory.
+   */
+  static class StagedPath {
+
+    static final Ordering<StagedPath> BY_PATH = new Ordering<StagedPath>() {
+      @Override
+      public int compare(final StagedPath left, final StagedPath right) {
+        return left.path.compareTo(right.path);
+      }
+    };
+
+    private final String path;
+    private final boolean file;
+
+    StagedPath(final String path, final boolean file) {
+      this.path = path;
+      this.file = file;
+    }
+  }
 
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import org.apache.maven.model.Resource;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Collections.emptyList;
+
+/**
+ * The configuration of a stage that runs before the image itself is built, and whose outputs are
+ * copied into the image. Whatever the stage installs to produce its outputs, such as a compiler
+ * or build tools, does not end up in the image.
+ */
+public class BuilderStage {
+
+  /** The name of the stage, and the directory of the build context its resources are staged to. */
+  static final String NAME = "builder";
+
+  /** The base image of the stage. Required. */
+  private String baseImage;
+
+  /** The workdir of the stage, which relative outputs are resolved against. */
+  private String workdir;
+
+  /** The run commands of the stage. */
+  private List<String> runs = emptyList();
+
+  /**
+   * The resources to add to the stage. The {@code targetPath} value is the location in the stage
+   * where the resource should be copied to, as for the resources of the image.
+   */
+  private List<Resource> resources = emptyList();
+
+  /**
+   * The files or directories to copy from the stage into the image, e.g.
+   * {@code target/app.jar:/app/}. Without the part after the colon, a file is copied to the same
+   * path in the image.
+   */
+  private List<String> outputs = emptyList();
+
+  public BuilderStage() {
+  }
+
+  BuilderStage(final String baseImage, final String workdir, final List<String> outputs) {
+    this.baseImage = baseImage;
+    this.workdir = workdir;
+    this.outputs = outputs;
+  }
+
+  String getBaseImage() {
+    return baseImage;
+  }
+
+  String getWorkdir() {
+    return workdir;
+  }
+
+  List<String> getRuns() {
+    return runs;
+  }
+
+  List<Resource> getResources() {
+    return resources;
+  }
+
+  List<String> getOutputs() {
+    return outputs;
+  }
+
+  /**
+   * Returns the COPY instructions that copy the outputs of the stage into the image.
+   */
+  List<String> copyInstructions() {
+    final List<String> copies = newArrayList();
+    for (final String output : outputs) {
+      final int colon = output.indexOf(':');
+      final String source = colon < 0 ? output : output.substring(0, colon);
+      final String dest = colon < 0 ? source : output.substring(colon + 1);
+      // COPY --from resolves sources against the root of the stage rather than its workdir
+      final String resolved = source.startsWith("/") || workdir == null
+                              ? source : workdir.replaceAll("/+$", "") + "/" + source;
+      copies.add(String.format("COPY --from=%s %s %s", NAME, resolved, dest));
+    }
+    return copies;
+  }
+}
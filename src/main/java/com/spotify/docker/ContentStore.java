@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory holding one copy of every file content staged by any module of a build, named
+ * after its SHA-256 digest and, as hard links share them, its POSIX permissions. Modules hard link
+ * their resources from here instead of each writing their own copy. Several modules may add the
+ * same content at the same time, so files are written to a temporary name first and then
+ * atomically moved into place.
+ */
+class ContentStore {
+
+  private final Path root;
+  private final FileDigester digester;
+
+  private final AtomicInteger storedFiles = new AtomicInteger();
+  private final AtomicLong storedBytes = new AtomicLong();
+  private final AtomicInteger reusedFiles = new AtomicInteger();
+
+  /**
+   * @param root     the directory of the store, shared by all modules
+   * @param digester {@link FileDigester} to hash files with
+   */
+  ContentStore(final Path root, final FileDigester digester) {
+    this.root = root;
+    this.digester = digester;
+  }
+
+  /**
+   * Adds the content of {@code source} to the store, unless it is already there.
+   *
+   * @param source the file to add
+   * @return the location of the content in the store
+   * @throws IOException if the file cannot be hashed or copied into the store
+   */
+  Path put(final Path source) throws IOException {
+    final String digest = digester.digest(source);
+    final Path stored =
+        root.resolve(digest.substring(0, 2)).resolve(digest + permissions(source));
+    if (Files.isRegularFile(stored)) {
+      reusedFiles.incrementAndGet();
+      return stored;
+    }
+    Files.createDirectories(stored.getParent());
+    final Path temp = Files.createTempFile(stored.getParent(), digest, ".tmp");
+    try {
+      Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.COPY_ATTRIBUTES);
+      try {
+        Files.move(temp, stored, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    storedFiles.incrementAndGet();
+    storedBytes.addAndGet(Files.size(stored));
+    return stored;
+  }
+
+  /**
+   * Returns the permissions of {@code source} as a suffix of its name in the store, so that e.g.
+   * an executable and a plain copy of a script do not share one file, and so one mode.
+   */
+  private static String permissions(final Path source) throws IOException {
+    try {
+      return "-" + PosixFilePermissions.toString(Files.getPosixFilePermissions(source));
+    } catch (UnsupportedOperationException e) {
+      // the file system has no POSIX permissions to tell apart
+      return "";
+    }
+  }
+
+  /**
+   * @return how much was written to the store, for the build log
+   */
+  String statistics() {
+    return String.format("Wrote %d files (%d bytes) to %s, reused %d stored files",
+                         storedFiles.get(), storedBytes.get(), root, reusedFiles.get());
+  }
+}
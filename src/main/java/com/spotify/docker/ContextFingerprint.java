@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import com.spotify.docker.client.DockerClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Fingerprints everything that goes into a {@code docker build}: the build context, including
+ * the Dockerfile, the build parameters and the base images. The context is hashed as a Merkle
+ * tree, where each directory hashes the names and hashes of its entries, so that the fingerprint
+ * changes if any file is added, removed, renamed or modified. Files excluded by
+ * {@code .dockerignore} are left out, as they are not part of the context sent to the daemon.
+ */
+class ContextFingerprint {
+
+  /**
+   * The image label the fingerprint is stored in.
+   */
+  static final String LABEL = "com.spotify.docker-maven-plugin.fingerprint";
+
+  private ContextFingerprint() {
+  }
+
+  /**
+   * @param directory  the build context
+   * @param params     the parameters passed along with the build
+   * @param baseImages the IDs of the images the build starts from, as the tags in the Dockerfile
+   *                   may point to newer images
+   * @param digester   {@link FileDigester} to hash the files of the context with
+   * @return the fingerprint, e.g. {@code sha256:ab12...}
+   * @throws IOException if the context cannot be read
+   */
+  static String compute(final Path directory, final List<DockerClient.BuildParam> params,
+                        final List<String> baseImages, final FileDigester digester)
+      throws IOException {
+    final Hasher hasher = Hashing.sha256().newHasher();
+    for (final DockerClient.BuildParam param : params) {
+      hasher.putString(param.name(), UTF_8).putByte((byte) 0)
+          .putString(param.value(), UTF_8).putByte((byte) 0);
+    }
+    for (final String baseImage : baseImages) {
+      hasher.putString(baseImage, UTF_8).putByte((byte) 0);
+    }
+
+    // list the whole tree first, so that all files can be hashed at once
+    final List<Path> files = Lists.newArrayList();
+    final Node root = list(directory.toFile(), "", DockerIgnore.load(directory), files);
+    final String[] digests = digester.digestAll(files);
+    hasher.putBytes(root.hash(digests).asBytes());
+    return "sha256:" + hasher.hash();
+  }
+
+  private static Node list(final File directory, final String path,
+                           final DockerIgnore dockerIgnore, final List<Path> files)
+      throws IOException {
+    final String[] names = directory.list();
+    if (names == null) {
+      throw new IOException("Cannot list " + directory);
+    }
+    // the order of the entries must not depend on the file system
+    Arrays.sort(names);
+
+    final Node node = new Node(-1);
+    for (final String name : names) {
+      final String entryPath = path.isEmpty() ? name : path + "/" + name;
+      final File entry = new File(directory, name);
+      final boolean isDirectory = entry.isDirectory();
+      if (dockerIgnore != null && (isDirectory ? dockerIgnore.isIgnoredDirectory(entryPath)
+                                               : dockerIgnore.isIgnored(entryPath))) {
+        continue;
+      }
+      if (isDirectory) {
+        node.children.put(name, list(entry, entryPath, dockerIgnore, files));
+      } else {
+        node.children.put(name, new Node(files.size()));
+        files.add(entry.toPath());
+      }
+    }
+    return node;
+  }
+
+  /**
+   * A file, referring to its digest by index, or a directory with its entries in sorted order.
+   */
+  private static class Node {
+
+    private final int file;
+    private final Map<String, Node> children = Maps.newLinkedHashMap();
+
+    Node(final int file) {
+      this.file = file;
+    }
+
+    HashCode hash(final String[] digests) {
+      if (file >= 0) {
+        return HashCode.fromString(digests[file]);
+      }
+      final Hasher hasher = Hashing.sha256().newHasher();
+      for (final Map.Entry<String, Node> child : children.entrySet()) {
+        hasher.putByte((byte) (child.getValue().file >= 0 ? 'f' : 'd'))
+            .putString(child.getKey(), UTF_8).putByte((byte) 0)
+            .putBytes(child.getValue().hash(digests).asBytes());
+      }
+      return hasher.hash();
+    }
+  }
+}
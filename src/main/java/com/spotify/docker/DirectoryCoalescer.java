@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import static com.spotify.docker.BuildMojo.separatorsToUnix;
+
+/**
+ * Finds directories of the staging directory that can be added to an image with a single ADD
+ * instead of one ADD per file. A directory qualifies if every file below it is one of the files
+ * to add, and none of them is a symbolic link or an archive: ADD only extracts archives and
+ * follows symbolic links that are given as a source themselves, not ones inside a directory.
+ */
+class DirectoryCoalescer {
+
+  private static final int TAR_MAGIC_OFFSET = 257;
+
+  private final Set<String> files = Sets.newHashSet();
+  private final Set<String> unsafe = Sets.newHashSet();
+
+  private DirectoryCoalescer() {
+  }
+
+  /**
+   * Records every file below {@code destination}.
+   *
+   * @param destination the staging directory
+   * @return {@link DirectoryCoalescer}
+   * @throws IOException if the staging directory cannot be read
+   */
+  static DirectoryCoalescer scan(final Path destination) throws IOException {
+    final DirectoryCoalescer coalescer = new DirectoryCoalescer();
+    if (!Files.isDirectory(destination)) {
+      return coalescer;
+    }
+    Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+          throws IOException {
+        final String path = separatorsToUnix(destination.relativize(file).toString());
+        coalescer.files.add(path);
+        if (!attrs.isRegularFile() || isArchive(file)) {
+          coalescer.unsafe.add(path);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return coalescer;
+  }
+
+  /**
+   * Maps each of {@code paths} that can be added as part of a directory to the topmost such
+   * directory. The root of the staging directory is never used, as it holds the Dockerfile.
+   *
+   * @param paths files to add, relative to the staging directory and using forward slashes
+   * @return the directory to add instead, keyed by the path of the file it covers
+   */
+  Map<String, String> coalesce(final Collection<String> paths) {
+    final Set<String> group = Sets.newHashSet(paths);
+    // directories holding a file that must not be added along with the group
+    final Set<String> excluded = Sets.newHashSet();
+    for (final String file : files) {
+      if (!group.contains(file) || unsafe.contains(file)) {
+        for (String dir = parent(file); dir != null; dir = parent(dir)) {
+          excluded.add(dir);
+        }
+      }
+    }
+    final Map<String, String> directories = Maps.newHashMap();
+    for (final String path : group) {
+      // topmost directory first, so that the largest possible directory is used
+      for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+        final String dir = path.substring(0, i);
+        if (!excluded.contains(dir)) {
+          directories.put(path, dir);
+          break;
+        }
+      }
+    }
+    return directories;
+  }
+
+  private static String parent(final String path) {
+    final int i = path.lastIndexOf('/');
+    return i < 0 ? null : path.substring(0, i);
+  }
+
+  // detects the formats docker extracts by their magic numbers: gzip, bzip2, xz and tar
+  private static boolean isArchive(final Path file) throws IOException {
+    final byte[] header = new byte[TAR_MAGIC_OFFSET + 5];
+    int length = 0;
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while (length < header.length
+             && (read = in.read(header, length, header.length - length)) > 0) {
+        length += read;
+      }
+    }
+    return startsWith(header, length, 0, 0x1f, 0x8b)
+           || startsWith(header, length, 0, 'B', 'Z', 'h')
+           || startsWith(header, length, 0, 0xfd, '7', 'z', 'X', 'Z', 0x00)
+           || startsWith(header, length, TAR_MAGIC_OFFSET, 'u', 's', 't', 'a', 'r');
+  }
+
+  private static boolean startsWith(final byte[] header, final int length, final int offset,
+                                    final int... magic) {
+    if (length < offset + magic.length) {
+      return false;
+    }
+    for (int i = 0; i < magic.length; i++) {
+      if ((header[offset + i] & 0xff) != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
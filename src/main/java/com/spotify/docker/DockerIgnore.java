@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The patterns of a {@code .dockerignore} file, matched the way the Docker CLI matches them when
+ * it sends a build context: later lines override earlier ones, lines starting with {@code !}
+ * re-include files, {@code **} matches any number of directories, and a pattern matching a
+ * directory also matches everything below it. The Dockerfile and the {@code .dockerignore} file
+ * itself are never ignored, as the daemon needs them.
+ */
+class DockerIgnore {
+
+  static final String FILE_NAME = ".dockerignore";
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+  private final List<IgnorePattern> patterns;
+  private final boolean hasExclusions;
+
+  private DockerIgnore(final List<IgnorePattern> patterns) {
+    this.patterns = patterns;
+    boolean exclusions = false;
+    for (final IgnorePattern pattern : patterns) {
+      exclusions |= pattern.exclusion;
+    }
+    this.hasExclusions = exclusions;
+  }
+
+  /**
+   * Reads the {@code .dockerignore} file in {@code directory}.
+   *
+   * @return {@link DockerIgnore}, or {@code null} if there is no such file
+   * @throws IOException if the file cannot be read
+   */
+  static DockerIgnore load(final Path directory) throws IOException {
+    final Path file = directory.resolve(FILE_NAME);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    return parse(Files.readAllLines(file, UTF_8));
+  }
+
+  static DockerIgnore parse(final List<String> lines) {
+    final List<IgnorePattern> patterns = Lists.newArrayList();
+    for (final String line : lines) {
+      String pattern = line.trim();
+      if (pattern.isEmpty() || pattern.startsWith("#")) {
+        continue;
+      }
+      final boolean exclusion = pattern.startsWith("!");
+      if (exclusion) {
+        pattern = pattern.substring(1).trim();
+      }
+      pattern = clean(pattern);
+      if (!pattern.isEmpty()) {
+        patterns.add(new IgnorePattern(pattern, exclusion));
+      }
+    }
+    return new DockerIgnore(ImmutableList.copyOf(patterns));
+  }
+
+  /**
+   * @param path a path relative to the context directory, using forward slashes
+   * @return true if the path is excluded from the build context
+   */
+  boolean isIgnored(final String path) {
+    if (path.equals("Dockerfile") || path.equals(FILE_NAME)) {
+      return false;
+    }
+    final List<String> parents = PATH_SPLITTER.splitToList(path);
+    boolean matched = false;
+    for (final IgnorePattern pattern : patterns) {
+      boolean match = pattern.regex.matcher(path).matches();
+      if (!match && parents.size() > 1 && pattern.depth < parents.size()) {
+        // a pattern matching one of the parent directories matches everything below it
+        match = pattern.regex.matcher(
+            Joiner.on('/').join(parents.subList(0, pattern.depth))).matches();
+      }
+      if (match) {
+        matched = !pattern.exclusion;
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * @param path a directory relative to the context directory, using forward slashes
+   * @return true if nothing below the directory can be part of the build context
+   */
+  boolean isIgnoredDirectory(final String path) {
+    // with exclusions, a file below an ignored directory may still be included
+    return !hasExclusions && isIgnored(path);
+  }
+
+  /**
+   * @return the patterns, in a form suitable to tell two files apart
+   */
+  @Override
+  public String toString() {
+    return Joiner.on(',').join(patterns);
+  }
+
+  // the equivalent of Go's filepath.Clean, which Docker applies to every pattern
+  private static String clean(final String pattern) {
+    final List<String> parts = Lists.newArrayList();
+    for (final String part : PATH_SPLITTER.split(pattern)) {
+      if (part.equals("..") && !parts.isEmpty() && !parts.get(parts.size() - 1).equals("..")) {
+        parts.remove(parts.size() - 1);
+      } else if (!part.equals(".")) {
+        parts.add(part);
+      }
+    }
+    return Joiner.on('/').join(parts);
+  }
+
+  private static class IgnorePattern {
+
+    private final String source;
+    private final boolean exclusion;
+    private final Pattern regex;
+    // number of path segments, used to match the pattern against parent directories
+    private final int depth;
+
+    IgnorePattern(final String source, final boolean exclusion) {
+      this.source = source;
+      this.exclusion = exclusion;
+      this.regex = Pattern.compile(toRegex(source));
+      this.depth = PATH_SPLITTER.splitToList(source).size();
+    }
+
+    @Override
+    public String toString() {
+      return (exclusion ? "!" : "") + source;
+    }
+
+    private static String toRegex(final String pattern) {
+      final StringBuilder regex = new StringBuilder("^");
+      boolean inClass = false;
+      for (int i = 0; i < pattern.length(); i++) {
+        final char c = pattern.charAt(i);
+        if (inClass) {
+          if (c == ']') {
+            inClass = false;
+          } else if (c == '\\' && i + 1 < pattern.length()) {
+            regex.append(c).append(pattern.charAt(++i));
+            continue;
+          }
+          regex.append(c);
+        } else if (c == '*') {
+          if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+            i++;
+            // treat "**/" as "**"
+            if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '/') {
+              i++;
+            }
+            regex.append(i + 1 == pattern.length() ? ".*" : "(.*/)?");
+          } else {
+            regex.append("[^/]*");
+          }
+        } else if (c == '?') {
+          regex.append("[^/]");
+        } else if (c == '[') {
+          inClass = true;
+          regex.append(c);
+          if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '^') {
+            regex.append('^');
+            i++;
+          }
+        } else if (c == '\\' && i + 1 < pattern.length()) {
+          quote(regex, pattern.charAt(++i));
+        } else {
+          quote(regex, c);
+        }
+      }
+      return regex.append('$').toString();
+    }
+
+    private static void quote(final StringBuilder regex, final char c) {
+      if (!Character.isLetterOrDigit(c)) {
+        regex.append('\\');
+      }
+      regex.append(c);
+    }
+  }
+}
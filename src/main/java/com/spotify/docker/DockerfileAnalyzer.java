@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.spotify.docker.BuildMojo.separatorsToUnix;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Finds ADD and COPY instructions of a Dockerfile that add files which change with every build,
+ * such as the project's jar or classes or the whole build context, ahead of RUN instructions. The
+ * layer cache of every RUN instruction after such an ADD is invalidated by each build.
+ */
+class DockerfileAnalyzer {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final Path context;
+  private final ResourceLayers layers;
+  private List<String> files;
+
+  /**
+   * @param context the staged build context, holding the Dockerfile
+   * @param layers  tells the files of the project, which change with every build, from the others
+   */
+  DockerfileAnalyzer(final Path context, final ResourceLayers layers) {
+    this.context = context;
+    this.layers = layers;
+  }
+
+  /**
+   * Returns a description of each ADD or COPY instruction that invalidates the cache of the RUN
+   * instructions after it on every build.
+   */
+  List<String> analyze() throws IOException {
+    final List<Instruction> instructions =
+        parse(Files.readAllLines(context.resolve("Dockerfile"), UTF_8));
+    final List<String> findings = newArrayList();
+    for (int i = 0; i < instructions.size(); i++) {
+      final Instruction add = instructions.get(i);
+      if (!add.keyword.equals("ADD") && !add.keyword.equals("COPY")) {
+        continue;
+      }
+      final Instruction run = nextRun(instructions, i);
+      if (run == null) {
+        continue;
+      }
+      final String reason = volatileInput(add);
+      if (reason != null) {
+        findings.add(String.format(
+            "%s on line %d adds %s before the RUN on line %d, so that RUN and every instruction "
+            + "after it run again on each build", add.keyword, add.line, reason, run.line));
+      }
+    }
+    return findings;
+  }
+
+  private static Instruction nextRun(final List<Instruction> instructions, final int index) {
+    for (final Instruction instruction : instructions.subList(index + 1, instructions.size())) {
+      if (instruction.keyword.equals("FROM")) {
+        // a new stage does not build on the layers of the previous one
+        return null;
+      }
+      if (instruction.keyword.equals("RUN")) {
+        return instruction;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns what the instruction adds that changes with every build, or null if it adds nothing
+   * like that.
+   */
+  private String volatileInput(final Instruction add) throws IOException {
+    final List<String> arguments = add.arguments();
+    if (arguments.size() < 2) {
+      return null;
+    }
+    for (final String argument : arguments) {
+      // files from another stage or an image are not part of the build context
+      if (argument.startsWith("--from=")) {
+        return null;
+      }
+    }
+
+    for (final String source : arguments.subList(0, arguments.size() - 1)) {
+      if (source.startsWith("--") || source.matches("[a-z]+://.*")) {
+        continue;
+      }
+      final String normalized = source.replaceAll("^(\\./|/)+", "").replaceAll("/+$", "");
+      if (normalized.isEmpty() || normalized.equals(".") || normalized.equals("*")) {
+        return "the whole build context";
+      }
+      final Pattern pattern = glob(normalized);
+      for (final String file : files()) {
+        if (matches(pattern, file)
+            && layers.classify(file) == ResourceLayers.Layer.APPLICATION) {
+          return file + ", which is built by the project,";
+        }
+      }
+    }
+    return null;
+  }
+
+  private List<String> files() throws IOException {
+    if (files == null) {
+      final List<String> found = newArrayList();
+      final SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+          found.add(separatorsToUnix(context.relativize(file).toString()));
+          return FileVisitResult.CONTINUE;
+        }
+      };
+      Files.walkFileTree(context, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                         visitor);
+      files = found;
+    }
+    return files;
+  }
+
+  /**
+   * Returns whether {@code pattern} matches {@code file} or one of the directories holding it.
+   */
+  private static boolean matches(final Pattern pattern, final String file) {
+    String path = file;
+    while (true) {
+      if (pattern.matcher(path).matches()) {
+        return true;
+      }
+      final int slash = path.lastIndexOf('/');
+      if (slash < 0) {
+        return false;
+      }
+      path = path.substring(0, slash);
+    }
+  }
+
+  /**
+   * Converts a source of an ADD or COPY instruction, which may hold the wildcards {@code *} and
+   * {@code ?}, to a regular expression.
+   */
+  static Pattern glob(final String source) {
+    final StringBuilder regex = new StringBuilder();
+    for (final char c : source.toCharArray()) {
+      if (c == '*') {
+        regex.append("[^/]*");
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * Splits the lines of a Dockerfile into instructions, joining continued lines and dropping
+   * comments.
+   */
+  static List<Instruction> parse(final List<String> lines) {
+    final List<Instruction> instructions = newArrayList();
+    StringBuilder current = null;
+    int start = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      final String line = lines.get(i).trim();
+      if (line.startsWith("#") || (current == null && line.isEmpty())) {
+        continue;
+      }
+      if (current == null) {
+        current = new StringBuilder();
+        start = i + 1;
+      }
+      if (line.endsWith("\\")) {
+        current.append(line, 0, line.length() - 1).append(' ');
+        continue;
+      }
+      current.append(line);
+      final String instruction = current.toString().trim();
+      final int space = instruction.indexOf(' ');
+      instructions.add(new Instruction(
+          start,
+          (space < 0 ? instruction : instruction.substring(0, space)).toUpperCase(Locale.ROOT),
+          space < 0 ? "" : instruction.substring(space + 1).trim()));
+      current = null;
+    }
+    return instructions;
+  }
+
+  static class Instruction {
+
+    final int line;
+    final String keyword;
+    final String rest;
+
+    Instruction(final int line, final String keyword, final String rest) {
+      this.line = line;
+      this.keyword = keyword;
+      this.rest = rest;
+    }
+
+    /**
+     * Returns the arguments of the instruction, in either the JSON or the shell form.
+     */
+    List<String> arguments() {
+      final List<String> flags = newArrayList();
+      String remaining = rest;
+      while (remaining.startsWith("--")) {
+        final int space = remaining.indexOf(' ');
+        if (space < 0) {
+          break;
+        }
+        flags.add(remaining.substring(0, space));
+        remaining = remaining.substring(space + 1).trim();
+      }
+      final List<String> arguments = newArrayList(flags);
+      if (remaining.startsWith("[")) {
+        try {
+          for (final Object argument : OBJECT_MAPPER.readValue(remaining, List.class)) {
+            arguments.add(String.valueOf(argument));
+          }
+          return arguments;
+        } catch (IOException e) {
+          // not valid JSON, so docker treats it as the shell form too
+        }
+      }
+      arguments.addAll(
+          Splitter.on(CharMatcher.whitespace()).omitEmptyStrings().splitToList(remaining));
+      return arguments;
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.hash.HashCode;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import static com.fasterxml.jackson.databind.MapperFeature.SORT_PROPERTIES_ALPHABETICALLY;
+import static com.fasterxml.jackson.databind.SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS;
+
+/**
+ * Computes SHA-256 digests of files. Large files are read through memory mapped
+ * {@link FileChannel}s, several files can be hashed at once on all cores, and digests are cached
+ * by path, size, modification time and inode, so that a file that has not changed since the
+ * previous build is not read at all.
+ */
+class FileDigester {
+
+  /**
+   * Files at least this large are memory mapped, smaller ones are cheaper to read.
+   */
+  private static final long MMAP_THRESHOLD = 1024 * 1024;
+
+  /**
+   * Largest region mapped at once, well below the 2 GB limit of a {@link ByteBuffer}.
+   */
+  private static final long MMAP_CHUNK = 64 * 1024 * 1024;
+
+  /**
+   * Number of files a single task hashes before the remaining files are split among threads.
+   */
+  private static final int FILES_PER_TASK = 4;
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(SORT_PROPERTIES_ALPHABETICALLY, true)
+      .configure(ORDER_MAP_ENTRIES_BY_KEYS, true)
+      .configure(FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private static final TypeReference<Map<String, Entry>> ENTRIES_TYPE =
+      new TypeReference<Map<String, Entry>>() {};
+
+  private final Path file;
+  private final Map<String, Entry> previous;
+  // written to by several threads when files are hashed in parallel
+  private final Map<String, Entry> current = new ConcurrentSkipListMap<>();
+
+  private final AtomicInteger hashedFiles = new AtomicInteger();
+  private final AtomicLong hashedBytes = new AtomicLong();
+  private final AtomicLong hashNanos = new AtomicLong();
+  private final AtomicInteger reusedFiles = new AtomicInteger();
+
+  private FileDigester(final Path file, final Map<String, Entry> previous) {
+    this.file = file;
+    this.previous = previous;
+  }
+
+  /**
+   * Loads the digests cached by the previous build. A missing or unreadable cache results in an
+   * empty one.
+   *
+   * @param file location of the cache
+   * @return {@link FileDigester}
+   */
+  static FileDigester load(final Path file) {
+    Map<String, Entry> previous = null;
+    if (Files.isRegularFile(file)) {
+      try {
+        previous = OBJECT_MAPPER.readValue(file.toFile(), ENTRIES_TYPE);
+      } catch (IOException ignore) {
+        // a corrupt cache is not fatal, it only costs us hashing every file again
+      }
+    }
+    return new FileDigester(file, previous == null ? new ConcurrentHashMap<String, Entry>()
+                                                   : new ConcurrentHashMap<>(previous));
+  }
+
+  /**
+   * @param path the file to hash
+   * @return the hex encoded SHA-256 digest of the file
+   * @throws IOException if the file cannot be read
+   */
+  String digest(final Path path) throws IOException {
+    final String key = path.toAbsolutePath().normalize().toString();
+    final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    final long size = attrs.size();
+    final long mtime = attrs.lastModifiedTime().toMillis();
+    final String inode = attrs.fileKey() == null ? null : attrs.fileKey().toString();
+
+    final Entry cached = previous.get(key);
+    if (cached != null && cached.size == size && cached.mtime == mtime
+        && Objects.equals(cached.inode, inode)) {
+      reusedFiles.incrementAndGet();
+      current.put(key, cached);
+      return cached.digest;
+    }
+
+    final long started = System.nanoTime();
+    final String digest = hash(path);
+    hashNanos.addAndGet(System.nanoTime() - started);
+    hashedFiles.incrementAndGet();
+    hashedBytes.addAndGet(size);
+
+    final Entry entry = new Entry(size, mtime, inode, digest);
+    previous.put(key, entry);
+    current.put(key, entry);
+    return digest;
+  }
+
+  /**
+   * Hashes several files at once, spread over all cores.
+   *
+   * @param paths the files to hash
+   * @return the digests of the files, in the same order
+   * @throws IOException if a file cannot be read
+   */
+  String[] digestAll(final List<Path> paths) throws IOException {
+    final String[] digests = new String[paths.size()];
+    try {
+      ForkJoinPool.commonPool().invoke(new DigestTask(paths, digests, 0, paths.size()));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return digests;
+  }
+
+  /**
+   * Writes the digests used by the current build, replacing the previous cache.
+   *
+   * @throws IOException if the cache cannot be written
+   */
+  void save() throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    OBJECT_MAPPER.writeValue(file.toFile(), current);
+  }
+
+  /**
+   * @return how much hashing was done, for the build log
+   */
+  String statistics() {
+    return String.format("Hashed %d files (%d bytes, %d ms), reused %d cached digests",
+                         hashedFiles.get(), hashedBytes.get(),
+                         TimeUnit.NANOSECONDS.toMillis(hashNanos.get()), reusedFiles.get());
+  }
+
+  private static String hash(final Path path) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < MMAP_THRESHOLD) {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // keep reading until the buffer is full
+        }
+        buffer.flip();
+        digest.update(buffer);
+      } else {
+        for (long position = 0; position < size; position += MMAP_CHUNK) {
+          digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                    Math.min(MMAP_CHUNK, size - position)));
+        }
+      }
+    }
+    return HashCode.fromBytes(digest.digest()).toString();
+  }
+
+  private class DigestTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Path> paths;
+    private final String[] digests;
+    private final int from;
+    private final int to;
+
+    DigestTask(final List<Path> paths, final String[] digests, final int from, final int to) {
+      this.paths = paths;
+      this.digests = digests;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > FILES_PER_TASK) {
+        final int middle = (from + to) / 2;
+        invokeAll(new DigestTask(paths, digests, from, middle),
+                  new DigestTask(paths, digests, middle, to));
+        return;
+      }
+      try {
+        for (int i = from; i < to; i++) {
+          digests[i] = digest(paths.get(i));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  static class Entry {
+
+    @JsonProperty("size")
+    private long size;
+
+    @JsonProperty("mtime")
+    private long mtime;
+
+    @JsonProperty("inode")
+    private String inode;
+
+    @JsonProperty("digest")
+    private String digest;
+
+    Entry() {
+    }
+
+    Entry(final long size, final long mtime, final String inode, final String digest) {
+      this.size = size;
+      this.mtime = mtime;
+      this.inode = inode;
+      this.digest = digest;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Lists;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.fasterxml.jackson.databind.SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS;
+
+/**
+ * Remembers when each base image was last pulled to a docker daemon, so that builds can skip
+ * asking the registry for a newer image when the previous pull is recent enough. The file is
+ * shared by all builds of a user, so it is merged rather than overwritten when saved.
+ */
+class PullRecords {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  // milliseconds since the epoch by image by daemon URI
+  private static final TypeReference<Map<String, Map<String, Long>>> RECORDS_TYPE =
+      new TypeReference<Map<String, Map<String, Long>>>() {};
+
+  private final Path file;
+  private final String daemon;
+  private final Map<String, Long> pulled;
+  private final Map<String, Long> recorded = new TreeMap<>();
+
+  private PullRecords(final Path file, final String daemon, final Map<String, Long> pulled) {
+    this.file = file;
+    this.daemon = daemon;
+    this.pulled = pulled;
+  }
+
+  /**
+   * Loads the records of a daemon. A missing or unreadable file results in no records, so every
+   * image is pulled.
+   *
+   * @param file   location of the records
+   * @param daemon URI of the docker daemon the images are pulled to, as a pull to one daemon does
+   *               not make an image any newer on another
+   * @return {@link PullRecords}
+   */
+  static PullRecords load(final Path file, final String daemon) {
+    return new PullRecords(file, daemon, daemonRecords(read(file), daemon));
+  }
+
+  private static Map<String, Map<String, Long>> read(final Path file) {
+    if (Files.isRegularFile(file)) {
+      try {
+        return new TreeMap<>(OBJECT_MAPPER.<Map<String, Map<String, Long>>>readValue(
+            file.toFile(), RECORDS_TYPE));
+      } catch (IOException ignore) {
+        // a corrupt file is not fatal, it only costs us a pull
+      }
+    }
+    return new TreeMap<>();
+  }
+
+  private static Map<String, Long> daemonRecords(final Map<String, Map<String, Long>> records,
+                                                 final String daemon) {
+    final Map<String, Long> pulled = records.get(daemon);
+    return pulled == null ? new TreeMap<String, Long>() : new TreeMap<>(pulled);
+  }
+
+  /**
+   * Returns the images that have not been pulled within {@code ttlMillis} before {@code now}.
+   */
+  List<String> expired(final Collection<String> images, final long ttlMillis, final long now) {
+    final List<String> expired = Lists.newArrayList();
+    for (final String image : images) {
+      final Long last = pulled.get(image);
+      if (last == null || last > now || now - last >= ttlMillis) {
+        expired.add(image);
+      }
+    }
+    return expired;
+  }
+
+  /**
+   * Records that {@code images} were pulled at {@code now}.
+   */
+  void record(final Collection<String> images, final long now) {
+    for (final String image : images) {
+      pulled.put(image, now);
+      recorded.put(image, now);
+    }
+  }
+
+  /**
+   * Adds the records of this build to those in the file, which other builds may have changed in
+   * the meantime.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  void save() throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    final Map<String, Map<String, Long>> merged = read(file);
+    final Map<String, Long> pulledToDaemon = daemonRecords(merged, daemon);
+    pulledToDaemon.putAll(recorded);
+    merged.put(daemon, pulledToDaemon);
+    final Path temp = Files.createTempFile(
+        file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      OBJECT_MAPPER.writeValue(temp.toFile(), merged);
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.project.MavenProject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Sorts staged files into image layers, ordered from the layer that changes least often to the
+ * one that changes most often, so that a change only invalidates the layer cache from its own
+ * layer on.
+ */
+class ResourceLayers {
+
+  /**
+   * The layers, in the order they are added to the image.
+   */
+  enum Layer {
+    DEPENDENCIES,
+    SNAPSHOT_DEPENDENCIES,
+    RESOURCES,
+    APPLICATION
+  }
+
+  // e.g. foo-1.0-20140101.123456-1.jar, a snapshot resolved to a timestamped version
+  private static final Pattern TIMESTAMPED_SNAPSHOT =
+      Pattern.compile(".*-\\d{8}\\.\\d{6}-\\d+(-[^-]+)?\\.jar");
+
+  private final Set<String> dependencies = Sets.newHashSet();
+  private final Set<String> snapshotDependencies = Sets.newHashSet();
+  private final List<String> applicationPrefixes = Lists.newArrayList();
+
+  /**
+   * @param project   the project whose artifact names are used to tell the application from its
+   *                  dependencies
+   * @param artifacts the resolved dependencies of the project
+   */
+  ResourceLayers(final MavenProject project, final Collection<Artifact> artifacts) {
+    for (final Artifact artifact : artifacts) {
+      if (artifact.getFile() != null) {
+        (artifact.isSnapshot() ? snapshotDependencies : dependencies)
+            .add(artifact.getFile().getName());
+      }
+    }
+    if (project.getBuild() != null && project.getBuild().getFinalName() != null) {
+      applicationPrefixes.add(project.getBuild().getFinalName());
+    }
+    applicationPrefixes.add(project.getArtifactId() + "-" + project.getVersion());
+  }
+
+  /**
+   * @param path path of a staged file, using forward slashes
+   * @return the layer the file belongs to
+   */
+  Layer classify(final String path) {
+    final String name = path.substring(path.lastIndexOf('/') + 1);
+    if (name.endsWith(".class")) {
+      return Layer.APPLICATION;
+    }
+    if (!name.endsWith(".jar") && !name.endsWith(".war")) {
+      return Layer.RESOURCES;
+    }
+    for (final String prefix : applicationPrefixes) {
+      if (name.startsWith(prefix)) {
+        return Layer.APPLICATION;
+      }
+    }
+    if (dependencies.contains(name)) {
+      return Layer.DEPENDENCIES;
+    }
+    if (snapshotDependencies.contains(name) || name.contains("-SNAPSHOT")
+        || TIMESTAMPED_SNAPSHOT.matcher(name).matches()) {
+      return Layer.SNAPSHOT_DEPENDENCIES;
+    }
+    return Layer.DEPENDENCIES;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.codehaus.plexus.util.MatchPatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static com.spotify.docker.BuildMojo.separatorsToUnix;
+
+/**
+ * Walks a resource directory and reports every file matching the resource's include and exclude
+ * patterns as it is found, instead of collecting all of them up front like plexus'
+ * {@code DirectoryScanner}. The patterns are Ant style and behave exactly like they do for
+ * {@code DirectoryScanner}: no includes means {@code **}, and directories that cannot hold an
+ * included file are not descended into.
+ */
+class ResourceScanner {
+
+  /**
+   * Receives the files found by {@link #scan(Path, Visitor)}.
+   */
+  interface Visitor {
+
+    /**
+     * @param path the file, relative to the scanned directory and using the platform separator
+     */
+    void visitFile(String path) throws IOException;
+  }
+
+  private final List<String> includePatterns;
+  private final List<String> excludePatterns;
+  private final MatchPatterns includes;
+  private final MatchPatterns excludes;
+  private final DockerIgnore dockerIgnore;
+
+  /**
+   * @param includes Ant style patterns of the files to include, or an empty list to include all
+   * @param excludes Ant style patterns of the files to exclude
+   */
+  ResourceScanner(final List<String> includes, final List<String> excludes) {
+    this(includes, excludes, null);
+  }
+
+  /**
+   * @param includes     Ant style patterns of the files to include, or an empty list to include all
+   * @param excludes     Ant style patterns of the files to exclude
+   * @param dockerIgnore {@code .dockerignore} patterns of files to exclude as well, or
+   *                     {@code null}
+   */
+  ResourceScanner(final List<String> includes, final List<String> excludes,
+                  final DockerIgnore dockerIgnore) {
+    this.includePatterns = includes;
+    this.excludePatterns = excludes;
+    this.includes = MatchPatterns.from(
+        includes.isEmpty() ? Lists.newArrayList("**") : normalize(includes));
+    this.excludes = MatchPatterns.from(normalize(excludes));
+    this.dockerIgnore = dockerIgnore;
+  }
+
+  /**
+   * Walks {@code directory}, following symbolic links, and passes each included regular file to
+   * {@code visitor}. Does nothing if the directory does not exist.
+   *
+   * @return the modification times of the directories that were walked, keyed by their path
+   *         relative to {@code directory}
+   */
+  Map<String, Long> scan(final Path directory, final Visitor visitor) throws IOException {
+    final Map<String, Long> directories = Maps.newHashMap();
+    if (!Files.isDirectory(directory)) {
+      return directories;
+    }
+    Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                       new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+        final String name = directory.relativize(dir).toString();
+        if (!name.isEmpty() && (!includes.matchesPatternStart(name, true)
+                                || dockerIgnore != null
+                                   && dockerIgnore.isIgnoredDirectory(separatorsToUnix(name)))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        directories.put(name, attrs.lastModifiedTime().toMillis());
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+          throws IOException {
+        // broken symbolic links and other special files are skipped, as DirectoryScanner does
+        if (attrs.isRegularFile()) {
+          final String name = directory.relativize(file).toString();
+          if (isIncluded(name)) {
+            visitor.visitFile(name);
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(final Path file, final IOException e)
+          throws IOException {
+        if (e instanceof FileSystemLoopException) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        throw e;
+      }
+    });
+    return directories;
+  }
+
+  /**
+   * @param path path relative to the scanned directory, using the platform separator
+   * @return true if the path matches the includes and none of the excludes or ignore patterns
+   */
+  boolean isIncluded(final String path) {
+    return includes.matches(path, true) && !excludes.matches(path, true)
+           && (dockerIgnore == null || !dockerIgnore.isIgnored(separatorsToUnix(path)));
+  }
+
+  /**
+   * @return the patterns of this scanner, in a form suitable to tell two scanners apart
+   */
+  @Override
+  public String toString() {
+    return Joiner.on('|').join(Joiner.on(',').join(includePatterns),
+                               Joiner.on(',').join(excludePatterns),
+                               dockerIgnore == null ? "" : dockerIgnore);
+  }
+
+  // the same normalization that DirectoryScanner applies to its patterns
+  private static List<String> normalize(final List<String> patterns) {
+    final List<String> normalized = Lists.newArrayListWithCapacity(patterns.size());
+    for (final String raw : patterns) {
+      String pattern = raw.trim();
+      if (pattern.startsWith("%regex[")) {
+        normalized.add(pattern);
+        continue;
+      }
+      pattern = pattern.replace(File.separatorChar == '/' ? '\\' : '/', File.separatorChar);
+      if (pattern.endsWith(File.separator)) {
+        pattern += "**";
+      }
+      normalized.add(pattern);
+    }
+    return normalized;
+  }
+}
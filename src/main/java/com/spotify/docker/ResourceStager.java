@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.spotify.docker.BuildMojo.separatorsToUnix;
+
+/**
+ * Copies or links resources into the docker build directory, optionally skipping files that a
+ * {@link StagingManifest} shows to be up to date, and optionally spreading the work over several
+ * threads.
+ */
+class ResourceStager implements Closeable {
+
+  /**
+   * How files end up in the build directory.
+   */
+  enum Mode {
+    COPY, LINK, SYMLINK, STORE;
+
+    static Mode parse(final String value) {
+      try {
+        return valueOf(value.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Number of files a single task stages before the remaining files are split among threads.
+   */
+  private static final int FILES_PER_TASK = 64;
+
+  private final Path destination;
+  private final Mode mode;
+  private final StagingManifest manifest;
+  private final ContentStore store;
+  private final ForkJoinPool pool;
+  private final Log log;
+
+  private final AtomicInteger linkedFiles = new AtomicInteger();
+  private final AtomicInteger copiedFiles = new AtomicInteger();
+  private final AtomicLong copiedBytes = new AtomicLong();
+  private final AtomicInteger skippedFiles = new AtomicInteger();
+  private final AtomicLong skippedBytes = new AtomicLong();
+  // paths relative to the destination of every file and directory staged so far
+  private final Set<String> staged = Collections.newSetFromMap(
+      new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * @param destination the docker build directory
+   * @param mode        how files are staged
+   * @param manifest    manifest of the previous build, or {@code null} to stage every file
+   * @param store       store to link files from in {@link Mode#STORE}, otherwise {@code null}
+   * @param threads     number of threads to stage files with
+   * @param log         {@link Log}
+   */
+  ResourceStager(final Path destination, final Mode mode, final StagingManifest manifest,
+                 final ContentStore store, final int threads, final Log log) {
+    this.destination = destination;
+    this.mode = mode;
+    this.manifest = manifest;
+    this.store = store;
+    this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    this.log = log;
+  }
+
+  /**
+   * Stages {@code files}, given relative to {@code source}, into {@code target}.
+   */
+  void stageFiles(final Path source, final Path target, final List<String> files)
+      throws IOException {
+    if (pool == null) {
+      for (final String file : files) {
+        stageFile(source.resolve(file), target.resolve(file), true);
+      }
+    } else {
+      invoke(new StageFilesTask(source, target, files, true));
+    }
+  }
+
+  /**
+   * Stages the single file {@code source} as {@code target}.
+   */
+  void stageFile(final Path source, final Path target) throws IOException {
+    stageFile(source, target, true);
+  }
+
+  /**
+   * Stages the whole tree below {@code source} into {@code target}. Symbolic links to directories
+   * are followed.
+   */
+  void stageDirectory(final Path source, final Path target) throws IOException {
+    if (pool == null) {
+      Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                         new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+            throws IOException {
+          createDirectories(target.resolve(source.relativize(dir).toString()));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+            throws IOException {
+          stageFile(file, target.resolve(source.relativize(file).toString()), false);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } else {
+      invoke(new StageDirectoryTask(source, target, ImmutableSet.of()));
+    }
+  }
+
+  /**
+   * Saves the manifest, if any, and logs what was staged.
+   */
+  void finish() throws IOException {
+    if (manifest != null) {
+      manifest.save();
+      log.info(String.format(
+          "Staged %d files (%d bytes), skipped %d unchanged files (%d bytes)",
+          copiedFiles.get(), copiedBytes.get(), skippedFiles.get(), skippedBytes.get()));
+    }
+    if (mode != Mode.COPY) {
+      log.info(String.format("Linked %d of %d staged files, the rest had to be copied",
+                             linkedFiles.get(), copiedFiles.get()));
+    }
+    if (store != null) {
+      log.info(store.statistics());
+    }
+  }
+
+  /**
+   * Deletes every file below the destination that was not staged by this stager, along with
+   * directories left empty by doing so. Symbolic links are deleted, not followed.
+   *
+   * @param keep paths relative to the destination of further files to keep
+   */
+  void prune(final Set<String> keep) throws IOException {
+    if (!Files.isDirectory(destination)) {
+      return;
+    }
+    final AtomicInteger prunedFiles = new AtomicInteger();
+    final AtomicLong prunedBytes = new AtomicLong();
+    Files.walkFileTree(destination, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+          throws IOException {
+        final String key = key(file);
+        if (!staged.contains(key) && !keep.contains(key)) {
+          log.debug(String.format("Pruning stale %s", file));
+          Files.delete(file);
+          prunedFiles.incrementAndGet();
+          prunedBytes.addAndGet(attrs.size());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(final Path dir, final IOException e)
+          throws IOException {
+        if (e != null) {
+          throw e;
+        }
+        if (!dir.equals(destination) && !staged.contains(key(dir))) {
+          try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            if (!entries.iterator().hasNext()) {
+              Files.delete(dir);
+            }
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    log.info(String.format("Pruned %d stale files (%d bytes) from %s",
+                           prunedFiles.get(), prunedBytes.get(), destination));
+  }
+
+  @Override
+  public void close() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Copies or links {@code sourcePath} to {@code destPath}. If there is a staging manifest, files
+   * which the manifest shows to already hold the same content are skipped.
+   */
+  private void stageFile(final Path sourcePath, final Path destPath, final boolean logCopy)
+      throws IOException {
+    final String key = key(destPath);
+    staged.add(key);
+
+    StagingManifest.Entry entry = manifest == null ? null
+                                                   : manifest.upToDate(key, sourcePath, destPath);
+    if (entry != null) {
+      log.debug(String.format("Skipping unchanged %s -> %s", sourcePath, destPath));
+      skippedFiles.incrementAndGet();
+      skippedBytes.addAndGet(entry.getSize());
+    } else {
+      final String message = String.format(
+          "%s %s -> %s", mode == Mode.COPY ? "Copying" : "Linking", sourcePath, destPath);
+      if (logCopy) {
+        log.info(message);
+      } else {
+        log.debug(message);
+      }
+      // ensure all directories exist because copy operation will fail if they don't
+      Files.createDirectories(destPath.getParent());
+      if (mode != Mode.COPY && link(sourcePath, destPath)) {
+        linkedFiles.incrementAndGet();
+      } else {
+        Files.copy(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.COPY_ATTRIBUTES);
+      }
+      copiedFiles.incrementAndGet();
+      if (manifest != null) {
+        entry = manifest.describe(sourcePath, destPath);
+        copiedBytes.addAndGet(entry.getSize());
+      }
+    }
+    if (manifest != null) {
+      manifest.put(key, entry);
+    }
+  }
+
+  /**
+   * Creates a hard or symbolic link, depending on the mode, at {@code destPath} pointing to
+   * {@code sourcePath}, or to its content in the store.
+   *
+   * @return false if the file system cannot link the two paths, e.g. because they are on different
+   *         devices, in which case the caller should fall back to copying the file.
+   */
+  private boolean link(final Path sourcePath, final Path destPath) throws IOException {
+    if (Files.exists(destPath) && Files.isSameFile(sourcePath, destPath)) {
+      // e.g. a resource directory that is the staging directory, whose file must not be deleted
+      return true;
+    }
+    Files.deleteIfExists(destPath);
+    try {
+      if (mode == Mode.SYMLINK) {
+        Files.createSymbolicLink(destPath, sourcePath.toAbsolutePath());
+      } else {
+        Files.createLink(destPath, mode == Mode.STORE ? store.put(sourcePath)
+                                                      : sourcePath.toRealPath());
+      }
+      return true;
+    } catch (FileSystemException | UnsupportedOperationException e) {
+      log.debug(String.format("Cannot link %s -> %s, copying instead: %s",
+                              sourcePath, destPath, e.getMessage()));
+      return false;
+    }
+  }
+
+  private void createDirectories(final Path dir) throws IOException {
+    Files.createDirectories(dir);
+    staged.add(key(dir));
+  }
+
+  private String key(final Path path) {
+    return separatorsToUnix(destination.relativize(path).toString());
+  }
+
+  private void invoke(final RecursiveAction task) throws IOException {
+    try {
+      pool.invoke(task);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private class StageFilesTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Path source;
+    private final Path target;
+    private final List<String> files;
+    private final boolean logCopy;
+
+    StageFilesTask(final Path source, final Path target, final List<String> files,
+                   final boolean logCopy) {
+      this.source = source;
+      this.target = target;
+      this.files = files;
+      this.logCopy = logCopy;
+    }
+
+    @Override
+    protected void compute() {
+      if (files.size() > FILES_PER_TASK) {
+        final int middle = files.size() / 2;
+        invokeAll(new StageFilesTask(source, target, files.subList(0, middle), logCopy),
+                  new StageFilesTask(source, target, files.subList(middle, files.size()),
+                                     logCopy));
+        return;
+      }
+      try {
+        for (final String file : files) {
+          stageFile(source.resolve(file), target.resolve(file), logCopy);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private class StageDirectoryTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Path source;
+    private final Path target;
+    // keys of the directories above this one, to detect loops through symbolic links
+    private final ImmutableSet<Object> ancestors;
+
+    StageDirectoryTask(final Path source, final Path target, final ImmutableSet<Object> ancestors) {
+      this.source = source;
+      this.target = target;
+      this.ancestors = ancestors;
+    }
+
+    @Override
+    protected void compute() {
+      final List<RecursiveAction> tasks = Lists.newArrayList();
+      final List<String> files = Lists.newArrayList();
+      try {
+        final Object key = Files.readAttributes(source, BasicFileAttributes.class).fileKey();
+        if (key != null && ancestors.contains(key)) {
+          throw new FileSystemLoopException(source.toString());
+        }
+        final ImmutableSet<Object> path = key == null
+            ? ancestors : ImmutableSet.builder().addAll(ancestors).add(key).build();
+
+        createDirectories(target);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+          for (final Path entry : entries) {
+            final String name = entry.getFileName().toString();
+            if (Files.isDirectory(entry)) {
+              tasks.add(new StageDirectoryTask(entry, target.resolve(name), path));
+            } else {
+              files.add(name);
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      tasks.add(new StageFilesTask(source, target, files, false));
+      invokeAll(tasks);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches resource directories, and everything below them, for changes to files that would be
+ * staged. Changes below the staging directory itself are ignored, in case a resource directory
+ * contains it.
+ */
+class ResourceWatcher implements Closeable {
+
+  private final Map<Path, ResourceScanner> resources;
+  private final Path ignored;
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> keys = Maps.newHashMap();
+  // outlives the keys, which are invalidated by the time the parent reports the deletion
+  private final Set<Path> directories = Sets.newHashSet();
+
+  /**
+   * @param resources the resource directories to watch, with the scanners that select their files
+   * @param ignored   directory in which changes are ignored
+   * @throws IOException if the file system cannot be watched
+   */
+  ResourceWatcher(final Map<Path, ResourceScanner> resources, final Path ignored)
+      throws IOException {
+    this.resources = Maps.newLinkedHashMap();
+    for (final Map.Entry<Path, ResourceScanner> resource : resources.entrySet()) {
+      this.resources.put(resource.getKey().toAbsolutePath().normalize(), resource.getValue());
+    }
+    this.ignored = ignored.toAbsolutePath().normalize();
+    this.watchService = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Starts watching all resource directories that exist.
+   *
+   * @return the number of directories watched
+   * @throws IOException if a directory cannot be watched
+   */
+  int start() throws IOException {
+    for (final Path directory : resources.keySet()) {
+      if (Files.isDirectory(directory)) {
+        register(directory, null);
+      }
+    }
+    return keys.size();
+  }
+
+  /**
+   * Blocks until a file that would be staged has changed, and then until no further changes have
+   * been seen for {@code debounceMillis}, so that e.g. a whole compilation leads to a single
+   * rebuild.
+   *
+   * @return the changed files
+   * @throws IOException if a new directory cannot be watched
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Set<Path> awaitChanges(final long debounceMillis) throws IOException, InterruptedException {
+    final Set<Path> changed = Sets.newTreeSet();
+    WatchKey key = watchService.take();
+    while (true) {
+      process(key, changed);
+      key = changed.isEmpty() ? watchService.take()
+                              : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+      if (key == null) {
+        return changed;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void process(final WatchKey key, final Set<Path> changed) throws IOException {
+    final Path directory = keys.get(key);
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) {
+        continue;
+      }
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // events were lost, so assume that anything in the directory may have changed
+        changed.add(directory);
+        continue;
+      }
+      final Path path = directory.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+        // files may have been created in the directory before it was watched
+        register(path, changed);
+      } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && unregister(path)) {
+        // the directory can no longer be inspected, so assume that staged files went with it
+        changed.add(path);
+      } else if (isRelevant(path)) {
+        changed.add(path);
+      }
+    }
+    if (!key.reset()) {
+      keys.remove(key);
+    }
+  }
+
+  private boolean isRelevant(final Path path) {
+    if (path.startsWith(ignored) || Files.isDirectory(path)) {
+      return false;
+    }
+    for (final Map.Entry<Path, ResourceScanner> resource : resources.entrySet()) {
+      if (path.startsWith(resource.getKey())
+          && resource.getValue().isIncluded(resource.getKey().relativize(path).toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Stops watching a deleted directory and everything below it.
+   *
+   * @return whether the directory was watched
+   */
+  private boolean unregister(final Path directory) {
+    boolean watched = false;
+    for (final Iterator<Path> iterator = directories.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().startsWith(directory)) {
+        iterator.remove();
+        watched = true;
+      }
+    }
+    for (final Iterator<Map.Entry<WatchKey, Path>> iterator = keys.entrySet().iterator();
+         iterator.hasNext(); ) {
+      final Map.Entry<WatchKey, Path> key = iterator.next();
+      if (key.getValue().startsWith(directory)) {
+        key.getKey().cancel();
+        iterator.remove();
+      }
+    }
+    return watched;
+  }
+
+  private void register(final Path directory, final Set<Path> changed) throws IOException {
+    Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                       new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+          throws IOException {
+        if (dir.startsWith(ignored)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        keys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                              StandardWatchEventKinds.ENTRY_DELETE,
+                              StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        directories.add(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+        if (changed != null && isRelevant(file)) {
+          changed.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(final Path file, final IOException e)
+          throws IOException {
+        if (e instanceof FileSystemLoopException) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        throw e;
+      }
+    });
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import static com.fasterxml.jackson.databind.MapperFeature.SORT_PROPERTIES_ALPHABETICALLY;
+import static com.fasterxml.jackson.databind.SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS;
+
+/**
+ * Remembers which files a resource scan found, together with the modification times of the
+ * directories that were walked. Adding, removing or renaming a file changes the modification time
+ * of its directory, so as long as none of them changed the next build can reuse the files instead
+ * of walking the tree again.
+ */
+class ScanCache {
+
+  /**
+   * Directories modified this close to the scan may still change within the same timestamp, so
+   * such scans are not cached. Two seconds covers the coarsest common file systems.
+   */
+  private static final long MTIME_GRANULARITY_MILLIS = 2000;
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(SORT_PROPERTIES_ALPHABETICALLY, true)
+      .configure(ORDER_MAP_ENTRIES_BY_KEYS, true)
+      .configure(FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private static final TypeReference<Map<String, Entry>> ENTRIES_TYPE =
+      new TypeReference<Map<String, Entry>>() {};
+
+  private final Path file;
+  private final Map<String, Entry> previous;
+  private final Map<String, Entry> current = new TreeMap<>();
+
+  private ScanCache(final Path file, final Map<String, Entry> previous) {
+    this.file = file;
+    this.previous = previous;
+  }
+
+  /**
+   * Loads the scan results of the previous build. A missing or unreadable file results in an
+   * empty cache.
+   *
+   * @param file location of the cache
+   * @return {@link ScanCache}
+   */
+  static ScanCache load(final Path file) {
+    Map<String, Entry> previous = null;
+    if (Files.isRegularFile(file)) {
+      try {
+        previous = OBJECT_MAPPER.readValue(file.toFile(), ENTRIES_TYPE);
+      } catch (IOException ignore) {
+        // a corrupt cache is not fatal, it only costs us a full scan
+      }
+    }
+    return new ScanCache(file, previous == null ? Maps.<String, Entry>newHashMap() : previous);
+  }
+
+  /**
+   * Returns the files found by the previous scan of a resource, if none of the directories walked
+   * by that scan have changed since.
+   *
+   * @param directory  the resource directory
+   * @param scanner    the scanner the resource is scanned with
+   * @param targetPath target path of the resource
+   * @return the included files, or {@code null} if the resource has to be scanned
+   * @throws IOException if a directory cannot be read
+   */
+  List<String> get(final Path directory, final ResourceScanner scanner, final String targetPath)
+      throws IOException {
+    final String key = key(directory, scanner, targetPath);
+    final Entry entry = previous.get(key);
+    if (entry == null) {
+      return null;
+    }
+    for (final Map.Entry<String, Long> dir : entry.directories.entrySet()) {
+      try {
+        if (Files.getLastModifiedTime(directory.resolve(dir.getKey())).toMillis()
+            != dir.getValue()) {
+          return null;
+        }
+      } catch (NoSuchFileException e) {
+        return null;
+      }
+    }
+    current.put(key, entry);
+    return entry.files;
+  }
+
+  /**
+   * Records the result of scanning a resource.
+   *
+   * @param directory   the resource directory
+   * @param scanner     the scanner the resource was scanned with
+   * @param targetPath  target path of the resource
+   * @param started     when the scan started, in milliseconds since the epoch
+   * @param directories modification times of the directories walked by the scan
+   * @param files       the included files
+   */
+  void put(final Path directory, final ResourceScanner scanner, final String targetPath,
+           final long started, final Map<String, Long> directories, final List<String> files) {
+    for (final long mtime : directories.values()) {
+      if (mtime > started - MTIME_GRANULARITY_MILLIS) {
+        return;
+      }
+    }
+    current.put(key(directory, scanner, targetPath), new Entry(directories, files));
+  }
+
+  /**
+   * Writes the scans of the current build, replacing the previous cache.
+   *
+   * @throws IOException if the cache cannot be written
+   */
+  void save() throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    OBJECT_MAPPER.writeValue(file.toFile(), current);
+  }
+
+  private static String key(final Path directory, final ResourceScanner scanner,
+                            final String targetPath) {
+    return Joiner.on('|').join(directory.toAbsolutePath().normalize(), scanner, targetPath);
+  }
+
+  static class Entry {
+
+    @JsonProperty("directories")
+    private Map<String, Long> directories;
+
+    @JsonProperty("files")
+    private List<String> files;
+
+    Entry() {
+    }
+
+    Entry(final Map<String, Long> directories, final List<String> files) {
+      this.directories = directories;
+      this.files = files;
+    }
+  }
+}
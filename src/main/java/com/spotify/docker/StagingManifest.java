@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Maps;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
+import static com.fasterxml.jackson.databind.MapperFeature.SORT_PROPERTIES_ALPHABETICALLY;
+import static com.fasterxml.jackson.databind.SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS;
+
+/**
+ * Records the path, size, modification time and content hash of every file staged into the
+ * docker build directory, so that the next build only needs to copy files that are new or have
+ * changed since then.
+ */
+class StagingManifest {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+      .configure(SORT_PROPERTIES_ALPHABETICALLY, true)
+      .configure(ORDER_MAP_ENTRIES_BY_KEYS, true)
+      .configure(FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private static final TypeReference<Map<String, Entry>> ENTRIES_TYPE =
+      new TypeReference<Map<String, Entry>>() {};
+
+  private final Path file;
+  private final FileDigester digester;
+  private final Map<String, Entry> previous;
+  // written to by several threads when resources are staged in parallel
+  private final Map<String, Entry> current = new ConcurrentSkipListMap<>();
+
+  private StagingManifest(final Path file, final FileDigester digester,
+                          final Map<String, Entry> previous) {
+    this.file = file;
+    this.digester = digester;
+    this.previous = previous;
+  }
+
+  /**
+   * Loads the manifest written by the previous build. A missing or unreadable manifest results in
+   * an empty one, which simply means that every file will be copied.
+   *
+   * @param file     location of the manifest
+   * @param digester {@link FileDigester} to hash files with
+   * @return {@link StagingManifest}
+   */
+  static StagingManifest load(final Path file, final FileDigester digester) {
+    Map<String, Entry> previous = null;
+    if (Files.isRegularFile(file)) {
+      try {
+        previous = OBJECT_MAPPER.readValue(file.toFile(), ENTRIES_TYPE);
+      } catch (IOException ignore) {
+        // a corrupt manifest is not fatal, it only costs us a full copy
+      }
+    }
+    return new StagingManifest(file, digester, previous == null
+                                               ? Maps.<String, Entry>newHashMap() : previous);
+  }
+
+  /**
+   * Checks whether {@code target} still holds the content of {@code source} as staged by the
+   * previous build. The content hash is only computed when the size matches but the modification
+   * time of the source has changed, e.g. after a rebuild that produced an identical file. The
+   * modification time of the target is checked against its own recorded value, because a target
+   * linked from the content store keeps the timestamp of whichever source first wrote the store.
+   *
+   * @param path   path of the file relative to the staging directory
+   * @param source file being staged
+   * @param target location of the file in the staging directory
+   * @return the up to date entry, or {@code null} if the file has to be copied
+   * @throws IOException if the source or target cannot be read
+   */
+  Entry upToDate(final String path, final Path source, final Path target) throws IOException {
+    final Entry entry = previous.get(path);
+    if (entry == null || !Files.isRegularFile(target)) {
+      return null;
+    }
+    final BasicFileAttributes sourceAttrs = Files.readAttributes(source, BasicFileAttributes.class);
+    final BasicFileAttributes targetAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+    if (sourceAttrs.size() != entry.size || targetAttrs.size() != entry.size
+        || targetAttrs.lastModifiedTime().toMillis() != entry.targetMtime
+        || !key(source).equals(entry.source)) {
+      return null;
+    }
+    if (sourceAttrs.lastModifiedTime().toMillis() == entry.mtime) {
+      return entry;
+    }
+    if (!digester.digest(source).equals(entry.hash)) {
+      return null;
+    }
+    // same content with a new timestamp, record the timestamp so the next build is cheap; the
+    // target is left alone, it may be shared with other modules through the store
+    return new Entry(entry.source, entry.size, sourceAttrs.lastModifiedTime().toMillis(),
+                     entry.targetMtime, entry.hash);
+  }
+
+  /**
+   * Creates an entry for a file that was just copied into the staging directory.
+   *
+   * @param source the file that was copied
+   * @param target the copy in the staging directory
+   * @return {@link Entry}
+   * @throws IOException if the source or target cannot be read
+   */
+  Entry describe(final Path source, final Path target) throws IOException {
+    final BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+    return new Entry(key(source), attrs.size(), attrs.lastModifiedTime().toMillis(),
+                     Files.getLastModifiedTime(target).toMillis(), digester.digest(source));
+  }
+
+  /**
+   * Records that {@code path} was staged by the current build.
+   *
+   * @param path  path of the file relative to the staging directory
+   * @param entry description of the staged file
+   */
+  void put(final String path, final Entry entry) {
+    current.put(path, entry);
+  }
+
+  /**
+   * Writes the files staged by the current build, replacing the previous manifest.
+   *
+   * @throws IOException if the manifest cannot be written
+   */
+  void save() throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    OBJECT_MAPPER.writeValue(file.toFile(), current);
+  }
+
+  private static String key(final Path source) {
+    return source.toAbsolutePath().normalize().toString();
+  }
+
+  static class Entry {
+
+    @JsonProperty("source")
+    private String source;
+
+    @JsonProperty("size")
+    private long size;
+
+    @JsonProperty("mtime")
+    private long mtime;
+
+    @JsonProperty("targetMtime")
+    private long targetMtime;
+
+    @JsonProperty("hash")
+    private String hash;
+
+    Entry() {
+    }
+
+    Entry(final String source, final long size, final long mtime, final long targetMtime,
+          final String hash) {
+      this.source = source;
+      this.size = size;
+      this.mtime = mtime;
+      this.targetMtime = targetMtime;
+      this.hash = hash;
+    }
+
+    long getSize() {
+      return size;
+    }
+  }
+}
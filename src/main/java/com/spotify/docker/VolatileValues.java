@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Maps;
+
+import org.apache.maven.project.MavenProject;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Values that change with every commit or build, such as the project version, the git commit id
+ * or a build timestamp. Expressions have already been evaluated by the time the plugin sees its
+ * configuration, so values are recognized by what they contain. A volatile value only counts where
+ * it stands on its own, so that version 1.0 is not found in 3.11.0, and values too short or too
+ * common to tell apart from any other text, such as {@code true}, are ignored.
+ */
+class VolatileValues {
+
+  // properties set by git-commit-id-plugin, buildnumber-maven-plugin and the plugin itself
+  private static final Pattern VOLATILE_PROPERTY =
+      Pattern.compile("(?i).*(commit|timestamp|buildnumber|revision).*");
+
+  // e.g. the value of a flag that merely happens to be named after commits
+  private static final Pattern COMMON_VALUE =
+      Pattern.compile("(?i)true|false|yes|no|on|off|null|none|.{0,2}");
+
+  private static final String TIMESTAMP = "maven.build.timestamp";
+  private static final String DEFAULT_TIMESTAMP_FORMAT = "yyyyMMdd-HHmm";
+
+  // name of the expression by value
+  private final Map<String, String> values = Maps.newLinkedHashMap();
+  // where each value stands on its own, by value
+  private final Map<String, Pattern> patterns = Maps.newHashMap();
+
+  VolatileValues(final Map<String, String> values) {
+    for (final Map.Entry<String, String> entry : values.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Collects the volatile values of {@code project}, for a build started at {@code startTime}.
+   */
+  static VolatileValues of(final MavenProject project, final Date startTime) {
+    final Map<String, String> values = Maps.newLinkedHashMap();
+    values.put("project.version", project.getVersion());
+    for (final String name : project.getProperties().stringPropertyNames()) {
+      if (VOLATILE_PROPERTY.matcher(name).matches()) {
+        values.put(name, project.getProperties().getProperty(name));
+      }
+    }
+    if (startTime != null && !values.containsKey(TIMESTAMP)) {
+      final SimpleDateFormat format = new SimpleDateFormat(project.getProperties().getProperty(
+          TIMESTAMP + ".format", DEFAULT_TIMESTAMP_FORMAT));
+      format.setTimeZone(TimeZone.getTimeZone("UTC"));
+      values.put(TIMESTAMP, format.format(startTime));
+    }
+    return new VolatileValues(values);
+  }
+
+  private void add(final String name, final String value) {
+    if (isNullOrEmpty(value) || values.containsKey(value)
+        || COMMON_VALUE.matcher(value.trim()).matches()) {
+      return;
+    }
+    values.put(value, name);
+    // not part of a longer word or number, e.g. of 3.11.0 for 1.0, but app-1.0.jar holds 1.0
+    patterns.put(value, Pattern.compile(
+        "(?<!\\p{Alnum}|\\p{Alnum}\\.)" + Pattern.quote(value) + "(?!\\p{Alnum}|\\.\\d)"));
+  }
+
+  /**
+   * Returns the name of the expression whose value, or which itself if it was left unevaluated,
+   * is part of {@code value}, or null if there is none.
+   */
+  String find(final String value) {
+    if (value == null) {
+      return null;
+    }
+    for (final Map.Entry<String, String> entry : values.entrySet()) {
+      if (patterns.get(entry.getKey()).matcher(value).find()
+          || value.contains("${" + entry.getValue() + "}")) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Maps;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds a docker image like {@code docker:build}, then watches the resource directories and
+ * builds the image again whenever a file that would be staged changes. Only changed files are
+ * staged again, and the Dockerfile is only rewritten when its content changes, so the build can
+ * reuse as much of the layer cache as possible. Runs until interrupted.
+ */
+@Mojo(name = "watch")
+public class WatchMojo extends BuildMojo {
+
+  /**
+   * Milliseconds without further changes to wait for before rebuilding, so that e.g. a whole
+   * compilation leads to a single rebuild. Defaults to 500.
+   */
+  @Parameter(property = "dockerWatchDebounce", defaultValue = "500")
+  private long watchDebounce;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    // the lock is only held while building, not while waiting for changes, so that other builds
+    // in the same JVM, e.g. of other modules, are not blocked for as long as the goal runs
+    executeWithoutLock();
+  }
+
+  @Override
+  protected void execute(final DockerClient docker)
+      throws MojoExecutionException, GitAPIException, IOException, DockerException,
+             InterruptedException {
+
+    if (weShouldSkipDockerBuild()) {
+      getLog().info("Skipping docker watch");
+      return;
+    }
+
+    enableIncrementalStaging();
+    try {
+      lock();
+      super.execute(docker);
+    } finally {
+      unlock();
+    }
+
+    final Map<Path, ResourceScanner> directories = Maps.newLinkedHashMap();
+    for (final Resource resource : getResources()) {
+      directories.put(Paths.get(resource.getDirectory()), newScanner(resource));
+    }
+    try (ResourceWatcher watcher =
+             new ResourceWatcher(directories, Paths.get(getDestination()))) {
+      getLog().info(String.format("Watching %d directories for changes", watcher.start()));
+      while (true) {
+        final Set<Path> changed = watcher.awaitChanges(watchDebounce);
+        getLog().info(String.format("%d changed files, rebuilding image", changed.size()));
+        for (final Path path : changed) {
+          getLog().debug("Changed: " + path);
+        }
+        try {
+          lock();
+          stageAndBuild(docker);
+        } catch (MojoExecutionException | IOException | DockerException e) {
+          // keep watching, the next change may well fix the build
+          getLog().error("Failed to rebuild image, waiting for further changes", e);
+        } finally {
+          unlock();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AppCdsTest {
+
+  @Test
+  public void testOnlyForExecFormJavaEntryPoints() {
+    assertThat(AppCds.forEntryPoint(null)).isNull();
+    assertThat(AppCds.forEntryPoint("java -jar app.jar")).isNull();
+    assertThat(AppCds.forEntryPoint("[\"/app/run.sh\"]")).isNull();
+    assertThat(AppCds.forEntryPoint("[\"java\"")).isNull();
+    assertThat(AppCds.forEntryPoint("[\"/usr/bin/java\", \"-jar\", \"app.jar\"]")).isNotNull();
+  }
+
+  @Test
+  public void testEntryPoint() throws Exception {
+    final AppCds cds = AppCds.forEntryPoint("[\"java\", \"-cp\", \"app/classes:lib/*\", \"Main\"]");
+
+    assertThat(cds.entryPoint()).isEqualTo(
+        "[\"java\", \"-XX:SharedArchiveFile=app-cds.jsa\", \"-cp\", \"app/classes:lib/*\", "
+        + "\"Main\"]");
+  }
+
+  @Test
+  public void testClassPathDirectories() {
+    assertThat(AppCds.forEntryPoint(
+        "[\"java\", \"-cp\", \"app/resources:app/classes:lib/*\", \"Main\"]")
+                   .classPathDirectories())
+        .containsExactly("app/resources", "app/classes");
+    assertThat(AppCds.forEntryPoint(
+        "[\"java\", \"-classpath\", \"app.jar:lib/*\", \"Main\"]").classPathDirectories())
+        .isEmpty();
+    assertThat(AppCds.forEntryPoint("[\"java\", \"-jar\", \"app.jar\"]").classPathDirectories())
+        .isEmpty();
+  }
+
+  @Test
+  public void testTrainingRun() {
+    final AppCds cds = AppCds.forEntryPoint("[\"java\", \"-cp\", \"app/classes:lib/*\", \"Main\"]");
+
+    final String run = cds.trainingRun(ImmutableList.of("-Dapp.exit=true"), 30);
+
+    assertThat(run).startsWith(
+        "RUN timeout 30 java -XX:ArchiveClassesAtExit=app-cds.jsa "
+        + "-Xlog:class+load:file=/tmp/app-cds-without.log:uptime -Dapp.exit=true "
+        + "-cp 'app/classes:lib/*' Main ; \\\n\t"
+        + "timeout 30 java -XX:SharedArchiveFile=app-cds.jsa");
+    assertThat(run).contains("echo \"AppCDS startup: last class loaded after ");
+    assertThat(run).endsWith("test -f app-cds.jsa");
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArtifactExploderTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testExplodePlainJar() throws Exception {
+    final Path jar = jar(ImmutableMap.of("Main-Class", "com.example.Main"), ImmutableMap.of(
+        "com/example/Main.class", "main",
+        "config.yml", "config"));
+    final Path directory = folder.getRoot().toPath().resolve("exploded");
+
+    assertThat(new ArtifactExploder(jar).explode(directory)).isEqualTo("com.example.Main");
+    assertThat(directory.resolve("classes/com/example/Main.class")).hasContent("main");
+    assertThat(directory.resolve("resources/config.yml")).hasContent("config");
+    assertThat(directory.resolve("resources/META-INF/MANIFEST.MF")).exists();
+  }
+
+  @Test
+  public void testExplodeSpringBootJar() throws Exception {
+    final Path jar = jar(
+        ImmutableMap.of("Main-Class", "org.springframework.boot.loader.JarLauncher",
+                        "Start-Class", "com.example.Main"),
+        ImmutableMap.of(
+            "BOOT-INF/classes/com/example/Main.class", "main",
+            "BOOT-INF/classes/application.yml", "config",
+            "BOOT-INF/lib/guava-19.0.jar", "guava"));
+    final Path directory = folder.getRoot().toPath().resolve("exploded");
+
+    assertThat(new ArtifactExploder(jar).explode(directory)).isEqualTo("com.example.Main");
+    assertThat(directory.resolve("classes/com/example/Main.class")).hasContent("main");
+    assertThat(directory.resolve("resources/application.yml")).hasContent("config");
+    assertThat(directory.resolve("lib/guava-19.0.jar")).hasContent("guava");
+  }
+
+  @Test
+  public void testExplodeDeletesRemovedEntries() throws Exception {
+    final Path directory = folder.getRoot().toPath().resolve("exploded");
+    new ArtifactExploder(jar(ImmutableMap.<String, String>of(), ImmutableMap.of(
+        "com/example/Old.class", "old",
+        "com/example/Main.class", "main"))).explode(directory);
+
+    new ArtifactExploder(jar(ImmutableMap.<String, String>of(), ImmutableMap.of(
+        "com/example/Main.class", "new main"))).explode(directory);
+
+    assertThat(directory.resolve("classes/com/example/Old.class")).doesNotExist();
+    assertThat(directory.resolve("classes/com/example/Main.class")).hasContent("new main");
+  }
+
+  private Path jar(final Map<String, String> attributes, final Map<String, String> entries)
+      throws Exception {
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    for (final Map.Entry<String, String> attribute : attributes.entrySet()) {
+      manifest.getMainAttributes().putValue(attribute.getKey(), attribute.getValue());
+    }
+    final Path jar = Files.createTempFile(folder.getRoot().toPath(), "app", ".jar");
+    try (OutputStream file = Files.newOutputStream(jar);
+         JarOutputStream out = new JarOutputStream(file, manifest)) {
+      for (final Map.Entry<String, String> entry : entries.entrySet()) {
+        out.putNextEntry(new JarEntry(entry.getKey()));
+        out.write(entry.getValue().getBytes(UTF_8));
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.Image;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BaseImagePinsTest {
+
+  @Test
+  public void testPin() {
+    final Image image = image("registry:5000/team/service@sha256:beef",
+                              "registry:5000/team/base@sha256:cafe");
+    assertThat(BaseImagePins.pin("registry:5000/team/base:1.0", ImmutableList.of(image)))
+        .isEqualTo("registry:5000/team/base@sha256:cafe");
+    assertThat(BaseImagePins.pin("registry:5000/team/base", ImmutableList.of(image)))
+        .isEqualTo("registry:5000/team/base@sha256:cafe");
+  }
+
+  @Test
+  public void testPinWithoutDigest() {
+    final Image image = image("other@sha256:cafe");
+    assertThat(BaseImagePins.pin("busybox:latest", ImmutableList.of(image)))
+        .isEqualTo("busybox:latest");
+    assertThat(BaseImagePins.pin("busybox", Collections.<Image>emptyList()))
+        .isEqualTo("busybox");
+  }
+
+  @Test
+  public void testResolvePullsUntaggedImageAsLatest() throws Exception {
+    final DockerClient docker = mock(DockerClient.class);
+    final Image image = image("openjdk@sha256:cafe");
+    when(docker.listImages(Matchers.<DockerClient.ListImagesParam>anyVararg()))
+        .thenReturn(ImmutableList.of(image));
+
+    assertThat(new BaseImagePins().resolve(docker, "openjdk", true, mock(Log.class)))
+        .isEqualTo("openjdk@sha256:cafe");
+    verify(docker).pull("openjdk:latest");
+  }
+
+  private static Image image(final String... digests) {
+    final Image image = mock(Image.class);
+    when(image.repoDigests()).thenReturn(
+        com.spotify.docker.client.shaded.com.google.common.collect.ImmutableList.copyOf(digests));
+    return image;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BaseImagePullerTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final DockerClient docker = mock(DockerClient.class);
+  private final Log log = mock(Log.class);
+
+  @Test
+  public void testParseBaseImages() throws Exception {
+    final Path dockerfile = folder.newFile("Dockerfile").toPath();
+    Files.write(dockerfile, ImmutableList.of(
+        "ARG VERSION=3",
+        "FROM --platform=linux/amd64 maven:3-jdk-8 AS build",
+        "RUN mvn package",
+        "from alpine:${VERSION}",
+        "FROM build AS test",
+        "FROM scratch",
+        "FROM openjdk:8-jre",
+        "COPY --from=build /app.jar /app.jar"), UTF_8);
+
+    assertThat(BaseImagePuller.parseBaseImages(dockerfile))
+        .containsExactly("maven:3-jdk-8", "openjdk:8-jre");
+    assertThat(BaseImagePuller.hasUnresolvedBaseImages(dockerfile)).isTrue();
+  }
+
+  @Test
+  public void testHasNoUnresolvedBaseImages() throws Exception {
+    final Path dockerfile = folder.newFile("Dockerfile").toPath();
+    Files.write(dockerfile, ImmutableList.of(
+        "FROM maven:3-jdk-8 AS build",
+        "FROM build",
+        "ENV HOME=$PWD"), UTF_8);
+
+    assertThat(BaseImagePuller.hasUnresolvedBaseImages(dockerfile)).isFalse();
+  }
+
+  @Test
+  public void testPullsMissingImages() throws Exception {
+    when(docker.inspectImage("missing")).thenThrow(new ImageNotFoundException("missing"));
+
+    final BaseImagePuller puller = new BaseImagePuller(docker, log);
+    puller.start(ImmutableList.of("present", "missing"), false);
+    puller.await();
+
+    verify(docker).pull("missing:latest");
+    verify(docker, never()).pull("present:latest");
+  }
+
+  @Test
+  public void testAlwaysPulls() throws Exception {
+    final BaseImagePuller puller = new BaseImagePuller(docker, log);
+    puller.start(ImmutableList.of("present"), true);
+    assertThat(puller.await()).isTrue();
+
+    verify(docker).pull("present:latest");
+    verify(docker, never()).inspectImage(anyString());
+  }
+
+  @Test
+  public void testFailedPullIsLogged() throws Exception {
+    doThrow(new DockerException("unauthorized")).when(docker).pull("private:latest");
+
+    final BaseImagePuller puller = new BaseImagePuller(docker, log);
+    puller.start(ImmutableList.of("private"), true);
+    assertThat(puller.await()).isFalse();
+
+    verify(log).warn("Failed to pull base image: unauthorized");
+  }
+
+  @Test
+  public void testWithDefaultTag() {
+    assertThat(BaseImagePuller.withDefaultTag("busybox")).isEqualTo("busybox:latest");
+    assertThat(BaseImagePuller.withDefaultTag("localhost:5000/app"))
+        .isEqualTo("localhost:5000/app:latest");
+    assertThat(BaseImagePuller.withDefaultTag("openjdk:8-jre")).isEqualTo("openjdk:8-jre");
+    assertThat(BaseImagePuller.withDefaultTag("busybox@sha256:cafe"))
+        .isEqualTo("busybox@sha256:cafe");
+  }
+}
@@ -22,47 +22,81 @@
 package com.spotify.docker;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.spotify.docker.client.AnsiProgressHandler;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerClient.BuildParam;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
 import com.spotify.docker.client.ProgressHandler;
+import com.spotify.docker.client.messages.Image;
+import com.spotify.docker.client.messages.ImageInfo;
 import com.spotify.docker.client.messages.ProgressMessage;
 
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
+import org.apache.maven.project.DependencyResolutionRequest;
+import org.apache.maven.project.DependencyResolutionResult;
 import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectDependenciesResolver;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Matchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import static com.spotify.docker.TestUtils.getPom;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class BuildMojoTest extends AbstractMojoTestCase {
@@ -201,6 +235,26 @@ public class BuildMojoTest extends AbstractMojoTestCase {
     verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
                          any(AnsiProgressHandler.class));
     assertFilesCopied();
+    // nothing in the image needs the dependencies, so they are not resolved
+    verify(mojo.dependenciesResolver, never()).resolve(any(DependencyResolutionRequest.class));
+  }
+
+  public void testBuildWithDockerDirectoryAppliesDockerIgnore() throws Exception {
+    final File pom = getPom("/pom-build-docker-directory-ignore.xml");
+
+    final BuildMojo mojo = setupMojo(pom);
+    final DockerClient docker = mock(DockerClient.class);
+
+    mojo.execute(docker);
+    verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
+                         any(AnsiProgressHandler.class));
+    assertFilesCopied();
+    assertFileExists("target/docker/.dockerignore");
+    assertFileExists("target/docker/app/app.txt");
+    assertFileExists("target/docker/test/keep.txt");
+    assertFileDoesNotExist("target/docker/node_modules");
+    assertFileDoesNotExist("target/docker/test/fixture.txt");
+    assertFileDoesNotExist("target/docker/app/scratch.tmp");
   }
 
   public void testBuildWithDockerDirectoryWithArgs() throws Exception {
@@ -318,8 +372,10 @@ public class BuildMojoTest extends AbstractMojoTestCase {
     final DockerClient docker = mock(DockerClient.class);
     mojo.execute(docker);
 
+    // pulled while staging rather than by the daemon
+    verify(docker).pull("busybox:latest");
     verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
-                         any(AnsiProgressHandler.class), any(BuildParam.class));
+                         any(AnsiProgressHandler.class));
   }
 
   public void testBuildWithPushTag() throws Exception {
@@ -432,6 +488,243 @@ public class BuildMojoTest extends AbstractMojoTestCase {
                    Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
     }
 
+  public void testBuildWithLinkStaging() throws Exception {
+    final File pom = getPom("/pom-build-link-staging.xml");
+
+    final BuildMojo mojo = setupMojo(pom);
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
+                         any(AnsiProgressHandler.class));
+    assertFilesCopied();
+    // linking must produce the same Dockerfile as copying
+    assertEquals("wrong dockerfile contents", GENERATED_DOCKERFILE,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+    assertTrue("resource was not linked",
+               Files.isSameFile(Paths.get("src/test/resources/copy2/copy2.json"),
+                                Paths.get("target/docker/copy2.json")));
+  }
+
+  public void testBuildWithLayerResources() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-layer-resources.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    // dependencies first, the project's own jar last, whatever the order of the paths
+    assertEquals("wrong dockerfile contents", Arrays.asList(
+        "FROM busybox",
+        "ADD lib/guava-19.0.jar lib/",
+        "ADD lib/common-1.0-SNAPSHOT.jar \\",
+        "\tlib/util-1.0-20140101.123456-1.jar lib/",
+        "ADD config/app.yml config/",
+        "ADD app/docker-maven-plugin-test-0.0.1-SNAPSHOT.jar app/"),
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
+  public void testBuildWithCoalesceResources() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-coalesce-resources.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    final Log log = mock(Log.class);
+    mojo.setLog(log);
+    mojo.execute(docker);
+
+    assertEquals("wrong dockerfile contents", Arrays.asList(
+        "FROM busybox",
+        "ADD resources resources",
+        "ADD copy2.json ."),
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+    verify(log).info("Resources are added in 2 layers instead of 4");
+  }
+
+  public void testBuildWithDependencyDirectory() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-dependency-directory.xml"));
+    mojo.session.getCurrentProject().setArtifacts(ImmutableSet.of(
+        dependency("com.google.guava", "guava", "19.0", "lib/guava-19.0.jar"),
+        dependency("com.example", "common", "1.0-SNAPSHOT", "lib/common-1.0-SNAPSHOT.jar"),
+        dependency("com.example", "app", "0.0.1-SNAPSHOT", "app")));
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    assertEquals("wrong dockerfile contents", Arrays.asList(
+        "FROM busybox",
+        "ADD lib/common-1.0-SNAPSHOT.jar \\",
+        "\tlib/guava-19.0.jar lib/",
+        "ADD copy2.json ."),
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+    assertTrue("dependency was not staged",
+               Files.isRegularFile(Paths.get("target/docker/lib/guava-19.0.jar")));
+  }
+
+  public void testBuildWithExplodedArtifact() throws Exception {
+    final BuildMojo mojo = setupExplodedArtifactMojo("/pom-build-exploded-artifact.xml");
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    assertEquals("wrong dockerfile contents", Arrays.asList(
+        "FROM busybox",
+        "ADD lib/guava-19.0.jar lib/",
+        "ADD copy2.json .",
+        "ADD app/resources app/resources",
+        "ADD app/classes app/classes",
+        "ENTRYPOINT [\"java\", \"-cp\", \"app/resources:app/classes:lib/*\", "
+        + "\"com.example.Main\"]"),
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+    assertTrue("class was not unpacked",
+               Files.isRegularFile(Paths.get("target/docker/app/classes/com/example/Main.class")));
+  }
+
+  public void testBuildWithExplodedArtifactSkipsAppCds() throws Exception {
+    final BuildMojo mojo = setupExplodedArtifactMojo("/pom-build-exploded-artifact-app-cds.xml");
+    final Log log = mock(Log.class);
+    mojo.setLog(log);
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    // the JVM cannot archive classes loaded from the directories of the unpacked jar
+    final List<String> dockerfile =
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8);
+    assertEquals("ENTRYPOINT [\"java\", \"-cp\", \"app/resources:app/classes:lib/*\", "
+                 + "\"com.example.Main\"]", dockerfile.get(dockerfile.size() - 1));
+    for (final String line : dockerfile) {
+      assertFalse("unexpected training run: " + line, line.contains("ArchiveClassesAtExit"));
+    }
+    verify(log).warn("Not creating an AppCDS archive because the class path holds directories, "
+                     + "which the JVM cannot archive classes from: app/resources, app/classes");
+  }
+
+  private BuildMojo setupExplodedArtifactMojo(final String pom) throws Exception {
+    final BuildMojo mojo = setupMojo(getPom(pom));
+    final MavenProject project = mojo.session.getCurrentProject();
+    project.setArtifacts(ImmutableSet.of(
+        dependency("com.google.guava", "guava", "19.0", "lib/guava-19.0.jar")));
+    final Artifact artifact =
+        dependency("com.spotify", "docker-maven-plugin-test", "0.0.1-SNAPSHOT", "app.jar");
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "com.example.Main");
+    final Path jar = Paths.get("target/docker-maven-plugin-test.jar");
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+      out.putNextEntry(new JarEntry("com/example/Main.class"));
+      out.closeEntry();
+    }
+    artifact.setFile(jar.toFile());
+    project.setArtifact(artifact);
+    return mojo;
+  }
+
+  public void testBuildWithAppCds() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-app-cds.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    final List<String> dockerfile =
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8);
+    assertTrue("no training run", dockerfile.contains(
+        "RUN timeout 60 java -XX:ArchiveClassesAtExit=app-cds.jsa "
+        + "-Xlog:class+load:file=/tmp/app-cds-without.log:uptime "
+        + "-Dspring.context.exit=onRefresh -jar app.jar ; \\"));
+    assertEquals("ENTRYPOINT [\"java\", \"-XX:SharedArchiveFile=app-cds.jsa\", \"-jar\", "
+                 + "\"app.jar\"]", dockerfile.get(dockerfile.size() - 1));
+  }
+
+  public void testBuildWithBuilderStage() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-builder-stage.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    assertTrue("builder resource was not staged",
+               Files.exists(Paths.get("target/docker/builder/copy2.json")));
+    assertEquals("wrong dockerfile contents", Arrays.asList(
+        "FROM maven:3-jdk-8 AS builder",
+        "WORKDIR /build",
+        "ADD builder/copy2.json .",
+        "RUN mvn package",
+        "FROM openjdk:8-jre-slim",
+        "COPY --from=builder /build/target/app.jar app.jar",
+        "ENTRYPOINT [\"java\", \"-jar\", \"app.jar\"]"),
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
+  public void testBuildWithDeferredVolatileEnv() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-volatile-env.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    assertEquals("wrong dockerfile contents", Arrays.asList(
+        "FROM busybox",
+        "ENV LANG C.UTF-8",
+        "ENV RELEASE 0.0.1-SNAPSHOT",
+        "ADD copy2.json .",
+        "RUN echo $RELEASE",
+        "ENV VERSION 0.0.1-SNAPSHOT"),
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
+  public void testBuildFailsOnCacheBusting() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-cache-busting.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    try {
+      mojo.execute(docker);
+      fail("mojo should have thrown exception because the jar is added before a RUN");
+    } catch (MojoExecutionException e) {
+      assertEquals("The Dockerfile has 1 instructions that invalidate the layer cache on every "
+                   + "build, move them after the RUN instructions", e.getMessage());
+    }
+    verify(docker, never()).build(any(Path.class), anyString(), any(AnsiProgressHandler.class));
+  }
+
+  public void testBuildWithStoreStaging() throws Exception {
+    final File pom = getPom("/pom-build-store-staging.xml");
+
+    final BuildMojo mojo = setupMojo(pom);
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    assertFilesCopied();
+    assertEquals("wrong dockerfile contents", GENERATED_DOCKERFILE,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+    final Path source = Paths.get("src/test/resources/copy2/copy2.json");
+    final String digest = com.google.common.io.Files.asByteSource(source.toFile())
+        .hash(Hashing.sha256()).toString();
+    final Path stored = Paths.get("target/docker-store", digest.substring(0, 2), digest + "-"
+        + PosixFilePermissions.toString(Files.getPosixFilePermissions(source)));
+    assertTrue("resource was not linked from the store",
+               Files.isSameFile(stored, Paths.get("target/docker/copy2.json")));
+  }
+
+  public void testBuildWithSymlinkStaging() throws Exception {
+    final File pom = getPom("/pom-build-symlink-staging.xml");
+
+    final BuildMojo mojo = setupMojo(pom);
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
+                         any(AnsiProgressHandler.class));
+    assertFilesCopied();
+    assertEquals("wrong dockerfile contents", GENERATED_DOCKERFILE,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+    assertTrue("resource was not symlinked",
+               Files.isSymbolicLink(Paths.get("target/docker/copy2.json")));
+    assertTrue("resource was not symlinked",
+               Files.isSymbolicLink(Paths.get("target/docker/resources/parent/parent.xml")));
+  }
+
+  public void testBuildWithParallelCopy() throws Exception {
+    final File pom = getPom("/pom-build-parallel-copy.xml");
+
+    final BuildMojo mojo = setupMojo(pom);
+    final DockerClient docker = mock(DockerClient.class);
+    mojo.execute(docker);
+
+    verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
+                         any(AnsiProgressHandler.class));
+    assertFilesCopied();
+    assertEquals("wrong dockerfile contents", GENERATED_DOCKERFILE,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
   public void testBuildGeneratedDockerFile_CopiesEntireDirectory() throws Exception {
     final File pom = getPom("/pom-build-copy-entire-directory.xml");
 
@@ -455,6 +748,152 @@ public class BuildMojoTest extends AbstractMojoTestCase {
     assertFileExists("target/docker/data/nested/file2");
   }
 
+  public void testBuildWithIncrementalStaging() throws Exception {
+    Files.deleteIfExists(Paths.get("target/docker-staging.json"));
+    final DockerClient docker = mock(DockerClient.class);
+
+    setupMojo(getPom("/pom-build-incremental-staging.xml")).execute(docker);
+
+    assertFileExists("target/docker-staging.json");
+    assertFileExists("target/docker/resources/parent/parent.xml");
+    assertFileExists("target/docker/data/nested/file2");
+    final List<String> dockerfile =
+        Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8);
+
+    // overwrite a staged file without changing its size or timestamp, an unchanged source must
+    // not be copied over it again
+    final Path staged = Paths.get("target/docker/data/file.txt");
+    final FileTime mtime = Files.getLastModifiedTime(staged);
+    final byte[] marker = new byte[(int) Files.size(staged)];
+    Arrays.fill(marker, (byte) 'x');
+    Files.write(staged, marker);
+    Files.setLastModifiedTime(staged, mtime);
+    // a staged file that went missing must be copied again
+    Files.delete(Paths.get("target/docker/resources/parent/parent.xml"));
+
+    setupMojo(getPom("/pom-build-incremental-staging.xml")).execute(docker);
+
+    assertTrue("unchanged file was copied again",
+               Arrays.equals(marker, Files.readAllBytes(staged)));
+    assertFileExists("target/docker/resources/parent/parent.xml");
+    assertEquals("wrong dockerfile contents", dockerfile,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
+  public void testBuildWithScanCache() throws Exception {
+    Files.deleteIfExists(Paths.get("target/docker-scan-cache.json"));
+    final DockerClient docker = mock(DockerClient.class);
+
+    setupMojo(getPom("/pom-build-scan-cache.xml")).execute(docker);
+    assertFileExists("target/docker-scan-cache.json");
+
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-scan-cache.xml"));
+    final Log log = mock(Log.class);
+    mojo.setLog(log);
+    mojo.execute(docker);
+
+    verify(log, never()).debug(startsWith("Scan cache miss"));
+    assertFilesCopied();
+    assertEquals("wrong dockerfile contents", GENERATED_DOCKERFILE,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
+  public void testBuildWithPruneStagingDirectory() throws Exception {
+    final Path stale = Paths.get("target/docker/resources/old/stale.jar");
+    Files.createDirectories(stale.getParent());
+    Files.write(stale, "stale".getBytes(UTF_8));
+    final Path staleSibling = Paths.get("target/docker/resources/parent/removed.xml");
+    Files.createDirectories(staleSibling.getParent());
+    Files.write(staleSibling, "removed".getBytes(UTF_8));
+
+    final DockerClient docker = mock(DockerClient.class);
+    setupMojo(getPom("/pom-build-prune-staging.xml")).execute(docker);
+
+    assertFilesCopied();
+    assertFileDoesNotExist(stale.toString());
+    assertFileDoesNotExist(stale.getParent().toString());
+    assertFileDoesNotExist(staleSibling.toString());
+    assertEquals("wrong dockerfile contents", GENERATED_DOCKERFILE,
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8));
+  }
+
+  public void testBuildWithPruneSkipsBuilderResourcesInStagingDirectory() throws Exception {
+    final Path source = Paths.get("target/docker/builder-sources/pom.xml");
+    Files.createDirectories(source.getParent());
+    Files.write(source, "<project/>".getBytes(UTF_8));
+
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-builder-stage-prune.xml"));
+    final Log log = mock(Log.class);
+    mojo.setLog(log);
+    mojo.execute(mock(DockerClient.class));
+
+    assertFileExists(source.toString());
+    verify(log).warn("Not pruning target/docker because resource directory "
+                     + "target/docker/builder-sources is inside it");
+  }
+
+  public void testBuildWithSkipUnchangedBuildLabelsImage() throws Exception {
+    final DockerClient docker = mock(DockerClient.class);
+    baseImage(docker, "sha256:base");
+    setupMojo(getPom("/pom-build-skip-unchanged.xml")).execute(docker);
+
+    final ArgumentCaptor<BuildParam> param = ArgumentCaptor.forClass(BuildParam.class);
+    verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
+                         any(AnsiProgressHandler.class), param.capture());
+    assertEquals("labels", param.getValue().name());
+    assertThat(URLDecoder.decode(param.getValue().value(), "UTF-8"))
+        .startsWith("{\"" + ContextFingerprint.LABEL + "\":\"sha256:");
+  }
+
+  public void testBuildWithSkipUnchangedBuildRetagsExistingImage() throws Exception {
+    final DockerClient docker = mock(DockerClient.class);
+    final Image image = mock(Image.class);
+    when(image.id()).thenReturn("sha256:cafe");
+    when(docker.listImages(any(DockerClient.ListImagesParam.class)))
+        .thenReturn(ImmutableList.of(image));
+    baseImage(docker, "sha256:base");
+
+    setupMojo(getPom("/pom-build-skip-unchanged.xml")).execute(docker);
+
+    verify(docker, never()).build(any(Path.class), anyString(), any(ProgressHandler.class),
+                                  Matchers.<BuildParam>anyVararg());
+    verify(docker).tag("sha256:cafe", "busybox", true);
+    assertFilesCopied();
+  }
+
+  public void testBuildWithSkipUnchangedBuildFingerprintsBaseImage() throws Exception {
+    final DockerClient docker = mock(DockerClient.class);
+    baseImage(docker, "sha256:base");
+    setupMojo(getPom("/pom-build-skip-unchanged.xml")).execute(docker);
+    // e.g. a newer busybox has been pulled since
+    baseImage(docker, "sha256:newer");
+    setupMojo(getPom("/pom-build-skip-unchanged.xml")).execute(docker);
+
+    final ArgumentCaptor<BuildParam> param = ArgumentCaptor.forClass(BuildParam.class);
+    verify(docker, times(2)).build(eq(Paths.get("target/docker")), eq("busybox"),
+                                   any(AnsiProgressHandler.class), param.capture());
+    assertThat(param.getAllValues().get(1).value())
+        .isNotEqualTo(param.getAllValues().get(0).value());
+  }
+
+  public void testBuildWithSkipUnchangedBuildWithoutBaseImage() throws Exception {
+    final DockerClient docker = mock(DockerClient.class);
+    when(docker.inspectImage("busybox")).thenThrow(new ImageNotFoundException("busybox"));
+
+    setupMojo(getPom("/pom-build-skip-unchanged.xml")).execute(docker);
+
+    // the daemon pulls the base image, so there is no telling which image it builds from
+    verify(docker, never()).listImages(Matchers.<DockerClient.ListImagesParam>anyVararg());
+    verify(docker).build(eq(Paths.get("target/docker")), eq("busybox"),
+                         any(AnsiProgressHandler.class));
+  }
+
+  private static void baseImage(final DockerClient docker, final String id) throws Exception {
+    final ImageInfo info = mock(ImageInfo.class);
+    when(info.id()).thenReturn(id);
+    when(docker.inspectImage("busybox")).thenReturn(info);
+  }
+
   public void testBuildWithProfile() throws Exception {
     final File pom = getPom("/pom-build-with-profile.xml");
 
@@ -512,12 +951,88 @@ public class BuildMojoTest extends AbstractMojoTestCase {
 
     mojo.execute(docker);
 
+    // the base image is pulled while staging, so the daemon need not pull it again
+    final InOrder inOrder = inOrder(docker);
+    inOrder.verify(docker).pull("busybox:latest");
+    inOrder.verify(docker).build(any(Path.class), anyString(), any(ProgressHandler.class));
+  }
+
+  public void testPullOnBuildWhenBackgroundPullFails() throws Exception {
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-pull-on-build.xml"));
+    final DockerClient docker = mock(DockerClient.class);
+    doThrow(new DockerException("unauthorized")).when(docker).pull("busybox:latest");
+
+    mojo.execute(docker);
+
+    // the daemon pulls the image itself, and reports any error
     verify(docker).build(any(Path.class),
         anyString(),
         any(ProgressHandler.class),
         eq(BuildParam.pullNewerImage()));
   }
 
+  public void testPinBaseImage() throws Exception {
+    final DockerClient docker = mock(DockerClient.class);
+    final Image image = mock(Image.class);
+    // docker-client returns its shaded copy of guava's ImmutableList
+    when(image.repoDigests()).thenReturn(
+        com.spotify.docker.client.shaded.com.google.common.collect.ImmutableList.of(
+            "busybox@sha256:cafe"));
+    when(docker.listImages(Matchers.<DockerClient.ListImagesParam>anyVararg()))
+        .thenReturn(ImmutableList.of(image));
+
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-pin-base-image.xml"));
+    mojo.execute(docker);
+    // a second module of the same session
+    final BuildMojo next = setupMojo(getPom("/pom-build-pin-base-image.xml"));
+    next.session = mojo.session;
+    next.execute(docker);
+
+    // pulled once for the session, and never by the daemon
+    verify(docker).pull("busybox:latest");
+    verify(docker, times(2)).build(any(Path.class), anyString(), any(ProgressHandler.class));
+    assertEquals("FROM busybox@sha256:cafe",
+                 Files.readAllLines(Paths.get("target/docker/Dockerfile"), UTF_8).get(0));
+  }
+
+  public void testPullOnBuildTtl() throws Exception {
+    Files.deleteIfExists(Paths.get("target/docker-pulls.json"));
+    final DockerClient docker = mock(DockerClient.class);
+
+    setupMojo(getPom("/pom-build-pull-on-build-ttl.xml")).execute(docker);
+    // pulled too recently to pull again
+    setupMojo(getPom("/pom-build-pull-on-build-ttl.xml")).execute(docker);
+
+    verify(docker).pull("busybox:latest");
+    verify(docker, times(2)).build(any(Path.class), anyString(), any(ProgressHandler.class));
+    assertTrue("pull was not recorded", Files.exists(Paths.get("target/docker-pulls.json")));
+  }
+
+  public void testPullOnBuildTtlIsPerDaemon() throws Exception {
+    Files.deleteIfExists(Paths.get("target/docker-pulls.json"));
+    final DockerClient docker = mock(DockerClient.class);
+
+    setupMojo(getPom("/pom-build-pull-on-build-ttl.xml")).execute(docker);
+    // a pull to another daemon does not make the image any newer on this one
+    final BuildMojo mojo = setupMojo(getPom("/pom-build-pull-on-build-ttl.xml"));
+    mojo.dockerUri = URI.create("http://other-host:2375");
+    mojo.execute(docker);
+
+    verify(docker, times(2)).pull("busybox:latest");
+  }
+
+  public void testPullOnBuildTtlWithBaseImageFromBuildArg() throws Exception {
+    Files.deleteIfExists(Paths.get("target/docker-pulls-build-arg.json"));
+    final DockerClient docker = mock(DockerClient.class);
+
+    setupMojo(getPom("/pom-build-pull-on-build-ttl-build-arg.xml")).execute(docker);
+    // the base image is not known before the build, so it cannot have been pulled recently
+    setupMojo(getPom("/pom-build-pull-on-build-ttl-build-arg.xml")).execute(docker);
+
+    verify(docker, times(2)).build(any(Path.class), anyString(), any(ProgressHandler.class),
+                                   eq(BuildParam.pullNewerImage()));
+  }
+
   public void testNoCache() throws Exception {
     final BuildMojo mojo = setupMojo(getPom("/pom-build-no-cache.xml"));
     final DockerClient docker = mock(DockerClient.class);
@@ -577,6 +1092,16 @@ public class BuildMojoTest extends AbstractMojoTestCase {
         .push(anyString(), any(AnsiProgressHandler.class));
   }
 
+  private static Artifact dependency(final String groupId, final String artifactId,
+                                     final String version, final String path) {
+    final DefaultArtifactHandler handler = new DefaultArtifactHandler("jar");
+    handler.setAddedToClasspath(true);
+    final Artifact artifact =
+        new DefaultArtifact(groupId, artifactId, version, "compile", "jar", null, handler);
+    artifact.setFile(new File("src/test/resources/layers", path));
+    return artifact;
+  }
+
   private BuildMojo setupMojo(final File pom) throws Exception {
     final MavenProject project = new ProjectStub(pom);
     final MavenSession session = newMavenSession(project);
@@ -596,9 +1121,37 @@ public class BuildMojoTest extends AbstractMojoTestCase {
     }
     mojo.session = session;
     mojo.execution = execution;
+    mojo.dependenciesResolver = resolver(project);
+    mojo.dockerUri = URI.create("http://host:2375");
     return mojo;
   }
 
+  /**
+   * Returns a resolver that resolves the dependencies of {@code project} to the artifacts set on
+   * it, as there is no repository to resolve them from.
+   */
+  private static ProjectDependenciesResolver resolver(final MavenProject project)
+      throws Exception {
+    final ProjectDependenciesResolver resolver = mock(ProjectDependenciesResolver.class);
+    when(resolver.resolve(any(DependencyResolutionRequest.class))).thenAnswer(
+        new Answer<DependencyResolutionResult>() {
+          @Override
+          public DependencyResolutionResult answer(final InvocationOnMock invocation) {
+            final List<DependencyNode> children = new ArrayList<>();
+            for (final Artifact artifact : project.getArtifacts()) {
+              children.add(new DefaultDependencyNode(
+                  new Dependency(RepositoryUtils.toArtifact(artifact), artifact.getScope())));
+            }
+            final DefaultDependencyNode root = new DefaultDependencyNode((Dependency) null);
+            root.setChildren(children);
+            final DependencyResolutionResult result = mock(DependencyResolutionResult.class);
+            when(result.getDependencyGraph()).thenReturn(root);
+            return result;
+          }
+        });
+    return resolver;
+  }
+
   private void deleteDirectory(String directory) throws IOException {
     final Path path = Paths.get(directory);
     if (Files.exists(path)) {
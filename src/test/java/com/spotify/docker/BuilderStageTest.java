@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BuilderStageTest {
+
+  @Test
+  public void testCopyInstructions() {
+    final BuilderStage stage = new BuilderStage("maven", "/build/", ImmutableList.of(
+        "target/app.jar", "target/lib:/app/lib/", "/etc/app.yml"));
+    assertThat(stage.copyInstructions()).containsExactly(
+        "COPY --from=builder /build/target/app.jar target/app.jar",
+        "COPY --from=builder /build/target/lib /app/lib/",
+        "COPY --from=builder /etc/app.yml /etc/app.yml");
+  }
+
+  @Test
+  public void testCopyInstructionsWithoutWorkdir() {
+    final BuilderStage stage = new BuilderStage("maven", null, ImmutableList.of("app.jar:/app/"));
+    assertThat(stage.copyInstructions()).containsExactly("COPY --from=builder app.jar /app/");
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentStoreTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private ContentStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    final Path root = folder.getRoot().toPath();
+    store = new ContentStore(root.resolve("store"),
+                             FileDigester.load(root.resolve("docker-digests.json")));
+  }
+
+  @Test
+  public void testIdenticalContentIsStoredOnce() throws Exception {
+    final Path first = write("module1/lib.jar", "shared");
+    final Path second = write("module2/lib.jar", "shared");
+
+    final Path stored = store.put(first);
+    assertThat(store.put(second)).isEqualTo(stored);
+    assertThat(new String(Files.readAllBytes(stored), UTF_8)).isEqualTo("shared");
+    assertThat(store.statistics()).startsWith("Wrote 1 files (6 bytes)")
+        .endsWith("reused 1 stored files");
+  }
+
+  @Test
+  public void testDifferentContentIsStoredSeparately() throws Exception {
+    assertThat(store.put(write("a.jar", "a"))).isNotEqualTo(store.put(write("b.jar", "b")));
+  }
+
+  @Test
+  public void testContentWithDifferentPermissionsIsStoredSeparately() throws Exception {
+    final Path script = write("module1/run.sh", "#!/bin/sh");
+    final Path executable = write("module2/run.sh", "#!/bin/sh");
+    Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rw-r--r--"));
+    Files.setPosixFilePermissions(executable, PosixFilePermissions.fromString("rwxr-xr-x"));
+
+    final Path stored = store.put(script);
+    final Path storedExecutable = store.put(executable);
+    assertThat(storedExecutable).isNotEqualTo(stored);
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(stored)))
+        .isEqualTo("rw-r--r--");
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(storedExecutable)))
+        .isEqualTo("rwxr-xr-x");
+  }
+
+  private Path write(final String path, final String content) throws Exception {
+    final Path file = folder.getRoot().toPath().resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+    return file;
+  }
+}
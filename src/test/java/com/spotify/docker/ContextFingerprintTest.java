@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import com.spotify.docker.client.DockerClient.BuildParam;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContextFingerprintTest {
+
+  private static final List<BuildParam> PARAMS = ImmutableList.of(BuildParam.noCache());
+  private static final List<String> BASE_IMAGES = ImmutableList.of("sha256:cafe");
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path context;
+  private FileDigester digester;
+  private String fingerprint;
+
+  @Before
+  public void setUp() throws Exception {
+    context = folder.newFolder("docker").toPath();
+    digester = FileDigester.load(folder.getRoot().toPath().resolve("docker-digests.json"));
+    write("Dockerfile", "FROM busybox");
+    write("app/app.jar", "app");
+    write(".dockerignore", "**/*.log");
+    fingerprint = compute();
+  }
+
+  @Test
+  public void testUnchangedContextHasSameFingerprint() throws Exception {
+    assertThat(fingerprint).startsWith("sha256:");
+    assertThat(compute()).isEqualTo(fingerprint);
+  }
+
+  @Test
+  public void testModifiedFileChangesFingerprint() throws Exception {
+    write("app/app.jar", "app2");
+    assertThat(compute()).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void testRenamedFileChangesFingerprint() throws Exception {
+    Files.move(context.resolve("app/app.jar"), context.resolve("app/other.jar"));
+    assertThat(compute()).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void testEmptyDirectoryChangesFingerprint() throws Exception {
+    Files.createDirectories(context.resolve("empty"));
+    assertThat(compute()).isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void testIgnoredFileDoesNotChangeFingerprint() throws Exception {
+    write("app/debug.log", "noise");
+    assertThat(compute()).isEqualTo(fingerprint);
+  }
+
+  @Test
+  public void testParamsChangeFingerprint() throws Exception {
+    assertThat(ContextFingerprint.compute(context, ImmutableList.<BuildParam>of(), BASE_IMAGES,
+                                          digester))
+        .isNotEqualTo(fingerprint);
+  }
+
+  @Test
+  public void testNewerBaseImageChangesFingerprint() throws Exception {
+    assertThat(ContextFingerprint.compute(context, PARAMS, ImmutableList.of("sha256:beef"),
+                                          digester))
+        .isNotEqualTo(fingerprint);
+  }
+
+  private String compute() throws Exception {
+    return ContextFingerprint.compute(context, PARAMS, BASE_IMAGES, digester);
+  }
+
+  private void write(final String path, final String content) throws Exception {
+    Files.createDirectories(context.resolve(path).getParent());
+    Files.write(context.resolve(path), content.getBytes(UTF_8));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DirectoryCoalescerTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path destination;
+
+  @Before
+  public void setUp() throws Exception {
+    destination = folder.getRoot().toPath();
+    write("Dockerfile");
+    write("app.jar");
+    write("lib/a.jar");
+    write("lib/b.jar");
+    write("lib/ext/c.jar");
+    write("config/app.yml");
+    write("config/stale.yml");
+  }
+
+  @Test
+  public void testCoalescesTopmostDirectories() throws Exception {
+    final DirectoryCoalescer coalescer = DirectoryCoalescer.scan(destination);
+
+    assertThat(coalescer.coalesce(
+        ImmutableList.of("app.jar", "lib/a.jar", "lib/b.jar", "lib/ext/c.jar", "config/app.yml")))
+        .isEqualTo(ImmutableMap.of("lib/a.jar", "lib", "lib/b.jar", "lib", "lib/ext/c.jar", "lib"));
+  }
+
+  @Test
+  public void testUsesSubdirectoryOfPartialDirectory() throws Exception {
+    final DirectoryCoalescer coalescer = DirectoryCoalescer.scan(destination);
+
+    assertThat(coalescer.coalesce(ImmutableList.of("lib/a.jar", "lib/ext/c.jar")))
+        .isEqualTo(ImmutableMap.of("lib/ext/c.jar", "lib/ext"));
+  }
+
+  @Test
+  public void testKeepsArchivesOnTheirOwn() throws Exception {
+    try (OutputStream out = new GZIPOutputStream(
+        Files.newOutputStream(Files.createDirectories(destination.resolve("dist"))
+                                  .resolve("bundle.tgz")))) {
+      out.write("content".getBytes(UTF_8));
+    }
+    write("dist/README");
+    final DirectoryCoalescer coalescer = DirectoryCoalescer.scan(destination);
+
+    assertThat(coalescer.coalesce(ImmutableList.of("dist/bundle.tgz", "dist/README"))).isEmpty();
+  }
+
+  private void write(final String path) throws Exception {
+    final Path file = destination.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, path.getBytes(UTF_8));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DockerIgnoreTest {
+
+  @Test
+  public void testSimplePatterns() {
+    final DockerIgnore ignore = DockerIgnore.parse(ImmutableList.of(
+        "# comment", "", "  *.md  ", "/build/", "./logs/*.log", "a?c"));
+    assertThat(ignore.isIgnored("README.md")).isTrue();
+    assertThat(ignore.isIgnored("docs/README.md")).isFalse();
+    assertThat(ignore.isIgnored("build/out.jar")).isTrue();
+    assertThat(ignore.isIgnored("logs/app.log")).isTrue();
+    assertThat(ignore.isIgnored("logs/old/app.log")).isFalse();
+    assertThat(ignore.isIgnored("abc")).isTrue();
+    assertThat(ignore.isIgnored("abbc")).isFalse();
+    assertThat(ignore.isIgnored("# comment")).isFalse();
+  }
+
+  @Test
+  public void testDoubleStar() {
+    final DockerIgnore ignore = DockerIgnore.parse(ImmutableList.of("**/*.tmp", "cache/**"));
+    assertThat(ignore.isIgnored("a.tmp")).isTrue();
+    assertThat(ignore.isIgnored("x/y/a.tmp")).isTrue();
+    assertThat(ignore.isIgnored("cache/a/b")).isTrue();
+    assertThat(ignore.isIgnored("a.tmpx")).isFalse();
+  }
+
+  @Test
+  public void testDirectoryMatchesContents() {
+    final DockerIgnore ignore = DockerIgnore.parse(ImmutableList.of("node_modules"));
+    assertThat(ignore.isIgnored("node_modules")).isTrue();
+    assertThat(ignore.isIgnoredDirectory("node_modules")).isTrue();
+    assertThat(ignore.isIgnored("node_modules/lib/index.js")).isTrue();
+    assertThat(ignore.isIgnored("src/node_modules/index.js")).isFalse();
+  }
+
+  @Test
+  public void testExclusions() {
+    final DockerIgnore ignore = DockerIgnore.parse(ImmutableList.of(
+        "test", "!test/keep.txt", "*.log", "!important.log", "important.log"));
+    assertThat(ignore.isIgnored("test/fixture.txt")).isTrue();
+    assertThat(ignore.isIgnored("test/keep.txt")).isFalse();
+    assertThat(ignore.isIgnoredDirectory("test")).isFalse();
+    // the last matching line wins
+    assertThat(ignore.isIgnored("important.log")).isTrue();
+  }
+
+  @Test
+  public void testDockerfileIsNeverIgnored() {
+    final DockerIgnore ignore = DockerIgnore.parse(ImmutableList.of("*"));
+    assertThat(ignore.isIgnored("Dockerfile")).isFalse();
+    assertThat(ignore.isIgnored(".dockerignore")).isFalse();
+    assertThat(ignore.isIgnored("app.jar")).isTrue();
+  }
+
+  @Test
+  public void testCharacterClassesAndEscapes() {
+    final DockerIgnore ignore = DockerIgnore.parse(ImmutableList.of("file[0-9].txt", "a\\*b",
+                                                                     "x+y"));
+    assertThat(ignore.isIgnored("file1.txt")).isTrue();
+    assertThat(ignore.isIgnored("filex.txt")).isFalse();
+    assertThat(ignore.isIgnored("a*b")).isTrue();
+    assertThat(ignore.isIgnored("axb")).isFalse();
+    assertThat(ignore.isIgnored("x+y")).isTrue();
+    assertThat(ignore.isIgnored("xxy")).isFalse();
+  }
+}
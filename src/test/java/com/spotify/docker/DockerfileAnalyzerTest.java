@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Build;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DockerfileAnalyzerTest {
+
+  @Rule
+  public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path context;
+  private ResourceLayers layers;
+
+  @Before
+  public void setUp() throws Exception {
+    context = temporaryFolder.getRoot().toPath();
+    Files.createDirectories(context.resolve("app/classes/com/example"));
+    Files.write(context.resolve("app/classes/com/example/Main.class"), new byte[0]);
+    Files.createDirectories(context.resolve("lib"));
+    Files.write(context.resolve("lib/guava-19.0.jar"), new byte[0]);
+    Files.write(context.resolve("service.jar"), new byte[0]);
+
+    final MavenProject project = new MavenProject();
+    project.setArtifactId("service");
+    project.setVersion("1.0");
+    project.setBuild(new Build());
+    project.getBuild().setFinalName("service");
+    layers = new ResourceLayers(project, Collections.<Artifact>emptySet());
+  }
+
+  @Test
+  public void testWholeContextBeforeRun() throws Exception {
+    assertThat(analyze("FROM busybox", "ADD . /app", "RUN apt-get update"))
+        .containsExactly("ADD on line 2 adds the whole build context before the RUN on line 3, "
+                         + "so that RUN and every instruction after it run again on each build");
+  }
+
+  @Test
+  public void testProjectFilesBeforeRun() throws Exception {
+    assertThat(analyze("FROM busybox",
+                       "ADD lib /lib/",
+                       "copy --chown=1000 [\"app\", \"/app\"]",
+                       "ADD s*.jar /",
+                       "# a comment",
+                       "RUN apt-get update && \\",
+                       "    apt-get install -y curl"))
+        .containsExactly(
+            "COPY on line 3 adds app/classes/com/example/Main.class, which is built by the "
+            + "project, before the RUN on line 6, so that RUN and every instruction after it run "
+            + "again on each build",
+            "ADD on line 4 adds service.jar, which is built by the project, before the RUN on "
+            + "line 6, so that RUN and every instruction after it run again on each build");
+  }
+
+  @Test
+  public void testNothingToReport() throws Exception {
+    assertThat(analyze("FROM maven AS builder",
+                       "ADD service.jar /",
+                       "FROM busybox",
+                       "ADD lib /lib/",
+                       "RUN apt-get update",
+                       "COPY --from=builder /service.jar /app/",
+                       "ADD service.jar /app/"))
+        .isEmpty();
+  }
+
+  @Test
+  public void testParse() {
+    final List<DockerfileAnalyzer.Instruction> instructions = DockerfileAnalyzer.parse(
+        ImmutableList.of("FROM busybox", "", "run echo \\", "  hello", "# done"));
+    assertThat(instructions).hasSize(2);
+    assertThat(instructions.get(1).line).isEqualTo(3);
+    assertThat(instructions.get(1).keyword).isEqualTo("RUN");
+    assertThat(instructions.get(1).arguments()).containsExactly("echo", "hello");
+  }
+
+  private List<String> analyze(final String... lines) throws Exception {
+    Files.write(context.resolve("Dockerfile"), ImmutableList.copyOf(lines), UTF_8);
+    return new DockerfileAnalyzer(context, layers).analyze();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileDigesterTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path cacheFile;
+  private Path small;
+  private Path large;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheFile = folder.getRoot().toPath().resolve("docker-digests.json");
+    small = folder.newFile("small.txt").toPath();
+    Files.write(small, "hello".getBytes("UTF-8"));
+    // large enough to be memory mapped
+    large = folder.newFile("large.bin").toPath();
+    final byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+    new Random(42).nextBytes(bytes);
+    Files.write(large, bytes);
+  }
+
+  @Test
+  public void testDigestMatchesSha256() throws Exception {
+    final FileDigester digester = FileDigester.load(cacheFile);
+    assertThat(digester.digest(small)).isEqualTo(sha256(small));
+    assertThat(digester.digest(large)).isEqualTo(sha256(large));
+  }
+
+  @Test
+  public void testDigestAllKeepsOrder() throws Exception {
+    final List<Path> paths = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      final Path file = folder.newFile("file" + i).toPath();
+      Files.write(file, ("content" + i).getBytes("UTF-8"));
+      paths.add(file);
+    }
+    paths.add(large);
+
+    final String[] digests = FileDigester.load(cacheFile).digestAll(paths);
+    for (int i = 0; i < paths.size(); i++) {
+      assertThat(digests[i]).isEqualTo(sha256(paths.get(i)));
+    }
+  }
+
+  @Test
+  public void testUnchangedFilesAreNotHashedAgain() throws Exception {
+    final FileDigester first = FileDigester.load(cacheFile);
+    first.digest(small);
+    first.digest(large);
+    first.save();
+
+    final FileDigester second = FileDigester.load(cacheFile);
+    second.digest(small);
+    second.digest(large);
+    assertThat(second.statistics()).startsWith("Hashed 0 files (0 bytes");
+    assertThat(second.statistics()).endsWith("reused 2 cached digests");
+  }
+
+  @Test
+  public void testModifiedFileIsHashedAgain() throws Exception {
+    final FileDigester first = FileDigester.load(cacheFile);
+    first.digest(small);
+    first.save();
+
+    Files.write(small, "world".getBytes("UTF-8"));
+    Files.setLastModifiedTime(small, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+    final FileDigester second = FileDigester.load(cacheFile);
+    assertThat(second.digest(small)).isEqualTo(sha256(small));
+    assertThat(second.statistics()).startsWith("Hashed 1 files (5 bytes");
+  }
+
+  private static String sha256(final Path path) throws Exception {
+    return com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256())
+        .toString();
+  }
+}
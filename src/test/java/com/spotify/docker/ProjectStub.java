@@ -21,6 +21,7 @@
 
 package com.spotify.docker;
 
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.model.Model;
 import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
 import org.apache.maven.plugin.testing.stubs.MavenProjectStub;
@@ -28,7 +29,9 @@ import org.codehaus.plexus.util.ReaderFactory;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Custom stub implementation of {@link org.apache.maven.project.MavenProject}.
@@ -38,6 +41,8 @@ import java.util.List;
  */
 public class ProjectStub extends MavenProjectStub {
 
+  private Set<Artifact> artifacts = Collections.emptySet();
+
   public ProjectStub(File pom) {
     final MavenXpp3Reader pomReader = new MavenXpp3Reader();
     Model model;
@@ -68,4 +73,15 @@ public class ProjectStub extends MavenProjectStub {
     getBuild().setDirectory("${project.basedir}/target");
     getBuild().setTestOutputDirectory(new File(getBasedir(), "target/classes").getAbsolutePath());
   }
+
+  // MavenProjectStub ignores the resolved artifacts it is given
+  @Override
+  public void setArtifacts(Set<Artifact> artifacts) {
+    this.artifacts = artifacts;
+  }
+
+  @Override
+  public Set<Artifact> getArtifacts() {
+    return artifacts;
+  }
 }
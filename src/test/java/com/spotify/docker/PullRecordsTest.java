@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PullRecordsTest {
+
+  private static final long TTL = 60000;
+  private static final String DAEMON = "unix:///var/run/docker.sock";
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testExpired() throws Exception {
+    final PullRecords records =
+        PullRecords.load(folder.getRoot().toPath().resolve("pulls.json"), DAEMON);
+    assertThat(records.expired(ImmutableList.of("busybox"), TTL, 100000))
+        .containsExactly("busybox");
+
+    records.record(ImmutableList.of("busybox"), 100000);
+    assertThat(records.expired(ImmutableList.of("busybox", "alpine"), TTL, 159999))
+        .containsExactly("alpine");
+    assertThat(records.expired(ImmutableList.of("busybox"), TTL, 160000))
+        .containsExactly("busybox");
+  }
+
+  @Test
+  public void testSaveMergesRecordsOfOtherBuilds() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("pulls.json");
+    final PullRecords first = PullRecords.load(file, DAEMON);
+    final PullRecords second = PullRecords.load(file, DAEMON);
+    first.record(ImmutableList.of("busybox"), 100000);
+    first.save();
+    second.record(ImmutableList.of("alpine"), 100000);
+    second.save();
+
+    assertThat(PullRecords.load(file, DAEMON)
+                   .expired(ImmutableList.of("busybox", "alpine"), TTL, 100000))
+        .isEmpty();
+  }
+
+  @Test
+  public void testRecordsArePerDaemon() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("pulls.json");
+    final PullRecords records = PullRecords.load(file, DAEMON);
+    records.record(ImmutableList.of("busybox"), 100000);
+    records.save();
+    final PullRecords other = PullRecords.load(file, "tcp://build-host:2376");
+    other.record(ImmutableList.of("alpine"), 100000);
+    other.save();
+
+    assertThat(PullRecords.load(file, "tcp://build-host:2376")
+                   .expired(ImmutableList.of("busybox", "alpine"), TTL, 100000))
+        .containsExactly("busybox");
+    assertThat(PullRecords.load(file, DAEMON)
+                   .expired(ImmutableList.of("busybox", "alpine"), TTL, 100000))
+        .containsExactly("alpine");
+  }
+
+  @Test
+  public void testCorruptFile() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("pulls.json");
+    Files.write(file, "{".getBytes(UTF_8));
+    assertThat(PullRecords.load(file, DAEMON).expired(ImmutableList.of("busybox"), TTL, 100000))
+        .containsExactly("busybox");
+  }
+}
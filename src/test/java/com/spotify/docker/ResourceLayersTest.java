@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableSet;
+
+import com.spotify.docker.ResourceLayers.Layer;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Build;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResourceLayersTest {
+
+  private ResourceLayers layers;
+
+  @Before
+  public void setUp() {
+    final MavenProject project = new MavenProject();
+    project.setArtifactId("service");
+    project.setVersion("1.0-SNAPSHOT");
+    project.setBuild(new Build());
+    project.getBuild().setFinalName("service");
+    layers = new ResourceLayers(project, ImmutableSet.of(
+        artifact("internal-lib", "2.0-SNAPSHOT", "internal-lib-2.0-20140101.120000-3.jar"),
+        artifact("guava", "19.0", "guava-19.0.jar")));
+  }
+
+  @Test
+  public void testClassify() {
+    assertThat(layers.classify("lib/guava-19.0.jar")).isEqualTo(Layer.DEPENDENCIES);
+    assertThat(layers.classify("lib/other-1.2.jar")).isEqualTo(Layer.DEPENDENCIES);
+    assertThat(layers.classify("lib/internal-lib-2.0-20140101.120000-3.jar"))
+        .isEqualTo(Layer.SNAPSHOT_DEPENDENCIES);
+    assertThat(layers.classify("lib/other-1.3-SNAPSHOT.jar"))
+        .isEqualTo(Layer.SNAPSHOT_DEPENDENCIES);
+    assertThat(layers.classify("lib/other-1.3-20140101.120000-1-tests.jar"))
+        .isEqualTo(Layer.SNAPSHOT_DEPENDENCIES);
+    assertThat(layers.classify("config/service.yml")).isEqualTo(Layer.RESOURCES);
+    assertThat(layers.classify("service.jar")).isEqualTo(Layer.APPLICATION);
+    assertThat(layers.classify("service-1.0-SNAPSHOT.jar")).isEqualTo(Layer.APPLICATION);
+    assertThat(layers.classify("classes/com/example/Main.class")).isEqualTo(Layer.APPLICATION);
+  }
+
+  private static Artifact artifact(final String artifactId, final String version,
+                                   final String fileName) {
+    final Artifact artifact = new DefaultArtifact("com.example", artifactId, version, "compile",
+                                                  "jar", null, new DefaultArtifactHandler("jar"));
+    artifact.setFile(new File("repository", fileName));
+    return artifact;
+  }
+}
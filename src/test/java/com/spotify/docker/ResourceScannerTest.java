@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResourceScannerTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path root;
+
+  @Before
+  public void setUp() throws Exception {
+    root = folder.getRoot().toPath();
+    for (final String file : ImmutableList.of("a.jar", "b.txt", "lib/c.jar", "lib/d.txt",
+                                              "lib/ext/e.jar", "conf/f.xml", "conf/g.tar.gz")) {
+      Files.createDirectories(root.resolve(file).getParent());
+      Files.createFile(root.resolve(file));
+    }
+  }
+
+  @Test
+  public void testMatchesDirectoryScanner() throws Exception {
+    assertSameAsDirectoryScanner(ImmutableList.<String>of(), ImmutableList.<String>of());
+    assertSameAsDirectoryScanner(ImmutableList.of("**/*.jar"), ImmutableList.<String>of());
+    assertSameAsDirectoryScanner(ImmutableList.of("*.jar", "conf/"), ImmutableList.of("**/*.xml"));
+    assertSameAsDirectoryScanner(ImmutableList.of("lib/**"), ImmutableList.of("lib/ext/**"));
+    assertSameAsDirectoryScanner(ImmutableList.<String>of(), ImmutableList.of("**/*.txt"));
+  }
+
+  @Test
+  public void testFollowsSymbolicLinks() throws Exception {
+    Files.createSymbolicLink(root.resolve("linked"), root.resolve("lib"));
+    assertThat(scan(ImmutableList.of("linked/*.jar"), ImmutableList.<String>of()))
+        .containsExactly("linked/c.jar");
+  }
+
+  @Test
+  public void testMissingDirectoryFindsNothing() throws Exception {
+    final List<String> found = Lists.newArrayList();
+    new ResourceScanner(ImmutableList.<String>of(), ImmutableList.<String>of())
+        .scan(root.resolve("missing"), new ResourceScanner.Visitor() {
+          @Override
+          public void visitFile(final String path) {
+            found.add(path);
+          }
+        });
+    assertThat(found).isEmpty();
+  }
+
+  private void assertSameAsDirectoryScanner(final List<String> includes,
+                                            final List<String> excludes) throws IOException {
+    final DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir(root.toFile());
+    scanner.setIncludes(includes.isEmpty() ? null : includes.toArray(new String[0]));
+    scanner.setExcludes(excludes.isEmpty() ? null : excludes.toArray(new String[0]));
+    scanner.scan();
+
+    assertThat(scan(includes, excludes))
+        .isEqualTo(Ordering.natural().sortedCopy(Arrays.asList(scanner.getIncludedFiles())));
+  }
+
+  private List<String> scan(final List<String> includes, final List<String> excludes)
+      throws IOException {
+    final List<String> found = Lists.newArrayList();
+    new ResourceScanner(includes, excludes).scan(root, new ResourceScanner.Visitor() {
+      @Override
+      public void visitFile(final String path) {
+        found.add(path);
+      }
+    });
+    return Ordering.natural().sortedCopy(found);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.Lists;
+
+import org.apache.maven.plugin.logging.Log;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ResourceStagerTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final Log log = mock(Log.class);
+
+  private Path source;
+  private Path destination;
+  private final List<String> files = Lists.newArrayList();
+
+  @Before
+  public void setUp() throws Exception {
+    source = folder.newFolder("source").toPath();
+    destination = folder.getRoot().toPath().resolve("docker");
+    for (int dir = 0; dir < 10; dir++) {
+      for (int file = 0; file < 30; file++) {
+        final String name = "dir" + dir + "/sub/file" + file + ".txt";
+        Files.createDirectories(source.resolve(name).getParent());
+        Files.write(source.resolve(name), name.getBytes(UTF_8));
+        files.add(name);
+      }
+    }
+  }
+
+  @Test
+  public void testStageFilesInParallel() throws Exception {
+    try (ResourceStager stager =
+             new ResourceStager(destination, ResourceStager.Mode.COPY, null, null, 4, log)) {
+      stager.stageFiles(source, destination.resolve("files"), files);
+    }
+    assertStaged(destination.resolve("files"));
+  }
+
+  @Test
+  public void testStageDirectoryInParallel() throws Exception {
+    try (ResourceStager stager =
+             new ResourceStager(destination, ResourceStager.Mode.COPY, null, null, 4, log)) {
+      stager.stageDirectory(source, destination.resolve("dir"));
+    }
+    assertStaged(destination.resolve("dir"));
+  }
+
+  @Test
+  public void testStageDirectoryWithLinks() throws Exception {
+    try (ResourceStager stager =
+             new ResourceStager(destination, ResourceStager.Mode.LINK, null, null, 1, log)) {
+      stager.stageDirectory(source, destination);
+    }
+    assertStaged(destination);
+    assertThat(Files.isSameFile(source.resolve(files.get(0)), destination.resolve(files.get(0))))
+        .isTrue();
+  }
+
+  @Test
+  public void testStageDirectoryIntoItself() throws Exception {
+    final ContentStore store = new ContentStore(
+        folder.getRoot().toPath().resolve("store"),
+        FileDigester.load(folder.getRoot().toPath().resolve("docker-digests.json")));
+    for (final ResourceStager.Mode mode : ResourceStager.Mode.values()) {
+      try (ResourceStager stager = new ResourceStager(
+          source, mode, null, mode == ResourceStager.Mode.STORE ? store : null, 1, log)) {
+        stager.stageDirectory(source, source);
+      }
+      assertStaged(source);
+    }
+  }
+
+  @Test
+  public void testPruneKeepsStagedFilesAndDirectories() throws Exception {
+    Files.createDirectories(source.resolve("empty"));
+    final Path stale = destination.resolve("dir0/stale/old.txt");
+    Files.createDirectories(stale.getParent());
+    Files.write(stale, "old".getBytes(UTF_8));
+
+    try (ResourceStager stager =
+             new ResourceStager(destination, ResourceStager.Mode.COPY, null, null, 1, log)) {
+      stager.stageDirectory(source, destination);
+      stager.prune(Collections.<String>emptySet());
+    }
+    assertStaged(destination);
+    assertThat(Files.isDirectory(destination.resolve("empty"))).isTrue();
+    assertThat(Files.exists(stale.getParent())).isFalse();
+  }
+
+  @Test
+  public void testParseMode() {
+    assertThat(ResourceStager.Mode.parse("symlink")).isEqualTo(ResourceStager.Mode.SYMLINK);
+    assertThat(ResourceStager.Mode.parse("reflink")).isNull();
+  }
+
+  private void assertStaged(final Path target) throws Exception {
+    for (final String file : files) {
+      assertThat(new String(Files.readAllBytes(target.resolve(file)), UTF_8)).isEqualTo(file);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResourceWatcherTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private Path ignored;
+  private ResourceWatcher watcher;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = folder.newFolder("resources").toPath().toRealPath();
+    ignored = Files.createDirectories(directory.resolve("docker"));
+    Files.createDirectories(directory.resolve("lib"));
+    final ResourceScanner scanner =
+        new ResourceScanner(ImmutableList.of("**/*.jar"), ImmutableList.<String>of());
+    watcher = new ResourceWatcher(ImmutableMap.of(directory, scanner), ignored);
+    assertThat(watcher.start()).isEqualTo(2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    watcher.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testReportsIncludedFilesOnly() throws Exception {
+    Files.write(directory.resolve("notes.txt"), "notes".getBytes(UTF_8));
+    Files.write(ignored.resolve("b.jar"), "b".getBytes(UTF_8));
+    Files.write(directory.resolve("lib/a.jar"), "a".getBytes(UTF_8));
+
+    assertThat(watcher.awaitChanges(200)).containsExactly(directory.resolve("lib/a.jar"));
+  }
+
+  @Test(timeout = 10000)
+  public void testReportsFilesInNewDirectories() throws Exception {
+    final Path created = Files.createDirectories(directory.resolve("new/nested"));
+    Files.write(created.resolve("c.jar"), "c".getBytes(UTF_8));
+
+    assertThat(watcher.awaitChanges(200)).containsExactly(created.resolve("c.jar"));
+
+    Files.write(created.resolve("d.jar"), "d".getBytes(UTF_8));
+
+    assertThat(watcher.awaitChanges(200)).containsExactly(created.resolve("d.jar"));
+  }
+
+  @Test(timeout = 10000)
+  public void testReportsDeletedFiles() throws Exception {
+    final Path jar = Files.write(directory.resolve("lib/a.jar"), "a".getBytes(UTF_8));
+    watcher.awaitChanges(200);
+
+    Files.delete(jar);
+
+    assertThat(watcher.awaitChanges(200)).containsExactly(jar);
+  }
+
+  @Test(timeout = 10000)
+  public void testReportsDeletedDirectories() throws Exception {
+    final Path lib = directory.resolve("lib");
+    Files.delete(lib);
+
+    assertThat(watcher.awaitChanges(200)).containsExactly(lib);
+
+    Files.createDirectories(lib);
+    Files.write(lib.resolve("a.jar"), "a".getBytes(UTF_8));
+
+    assertThat(watcher.awaitChanges(200)).containsExactly(lib.resolve("a.jar"));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScanCacheTest {
+
+  private static final ResourceScanner SCANNER =
+      new ResourceScanner(ImmutableList.of("**/*.jar"), ImmutableList.<String>of());
+  private static final List<String> FILES = ImmutableList.of("lib/a.jar");
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path cacheFile;
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheFile = folder.getRoot().toPath().resolve("docker-scan-cache.json");
+    directory = folder.newFolder("resources").toPath();
+    Files.createDirectories(directory.resolve("lib"));
+    Files.createFile(directory.resolve("lib/a.jar"));
+    age(directory);
+    age(directory.resolve("lib"));
+  }
+
+  @Test
+  public void testUnchangedTreeIsHit() throws Exception {
+    save(System.currentTimeMillis());
+    assertThat(ScanCache.load(cacheFile).get(directory, SCANNER, "app"))
+        .isEqualTo(FILES);
+  }
+
+  @Test
+  public void testOtherPatternsAreMiss() throws Exception {
+    save(System.currentTimeMillis());
+    assertThat(ScanCache.load(cacheFile).get(
+        directory, new ResourceScanner(ImmutableList.<String>of(), ImmutableList.<String>of()),
+        "app")).isNull();
+    assertThat(ScanCache.load(cacheFile).get(directory, SCANNER, "other")).isNull();
+  }
+
+  @Test
+  public void testAddedFileIsMiss() throws Exception {
+    save(System.currentTimeMillis());
+    Files.createFile(directory.resolve("lib/b.jar"));
+    assertThat(ScanCache.load(cacheFile).get(directory, SCANNER, "app")).isNull();
+  }
+
+  @Test
+  public void testRemovedDirectoryIsMiss() throws Exception {
+    save(System.currentTimeMillis());
+    Files.delete(directory.resolve("lib/a.jar"));
+    Files.delete(directory.resolve("lib"));
+    assertThat(ScanCache.load(cacheFile).get(directory, SCANNER, "app")).isNull();
+  }
+
+  @Test
+  public void testRecentlyModifiedTreeIsNotCached() throws Exception {
+    save(mtimes().get("lib") + 1000);
+    assertThat(ScanCache.load(cacheFile).get(directory, SCANNER, "app")).isNull();
+  }
+
+  private void save(final long started) throws Exception {
+    final ScanCache cache = ScanCache.load(cacheFile);
+    cache.put(directory, SCANNER, "app", started, mtimes(), FILES);
+    cache.save();
+  }
+
+  private Map<String, Long> mtimes() throws Exception {
+    return ImmutableMap.of(
+        "", Files.getLastModifiedTime(directory).toMillis(),
+        "lib", Files.getLastModifiedTime(directory.resolve("lib")).toMillis());
+  }
+
+  private static void age(final Path path) throws Exception {
+    Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+  }
+}
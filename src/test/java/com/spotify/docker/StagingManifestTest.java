@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StagingManifestTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path manifestFile;
+  private FileDigester digester;
+  private Path source;
+  private Path target;
+
+  @Before
+  public void setUp() throws Exception {
+    manifestFile = folder.getRoot().toPath().resolve("docker-staging.json");
+    digester = FileDigester.load(folder.getRoot().toPath().resolve("docker-digests.json"));
+    source = folder.newFile("source.txt").toPath();
+    target = folder.getRoot().toPath().resolve("target.txt");
+    Files.write(source, "hello".getBytes(UTF_8));
+    stage();
+  }
+
+  @Test
+  public void testUnchangedFileIsUpToDate() throws Exception {
+    assertThat(upToDate("target.txt")).isNotNull();
+  }
+
+  @Test
+  public void testUnknownPathIsNotUpToDate() throws Exception {
+    assertThat(upToDate("other.txt")).isNull();
+  }
+
+  @Test
+  public void testMissingTargetIsNotUpToDate() throws Exception {
+    Files.delete(target);
+    assertThat(upToDate("target.txt")).isNull();
+  }
+
+  @Test
+  public void testChangedContentIsNotUpToDate() throws Exception {
+    Files.write(source, "world".getBytes(UTF_8));
+    Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+    assertThat(upToDate("target.txt")).isNull();
+  }
+
+  @Test
+  public void testTouchedFileWithSameContentIsUpToDate() throws Exception {
+    final FileTime touched = FileTime.fromMillis(System.currentTimeMillis() + 10000);
+    Files.setLastModifiedTime(source, touched);
+    final StagingManifest manifest = StagingManifest.load(manifestFile, digester);
+    final StagingManifest.Entry entry = manifest.upToDate("target.txt", source, target);
+    assertThat(entry).isNotNull();
+    manifest.put("target.txt", entry);
+    manifest.save();
+    // the new timestamp is recorded, so the next build does not hash the file again
+    Files.write(source, "world".getBytes(UTF_8));
+    Files.setLastModifiedTime(source, touched);
+    assertThat(upToDate("target.txt")).isNotNull();
+  }
+
+  @Test
+  public void testTargetLinkedFromStoreIsUpToDate() throws Exception {
+    // a store file keeps the timestamp of whichever source was stored first
+    Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    final StagingManifest manifest = StagingManifest.load(manifestFile, digester);
+    manifest.put("target.txt", manifest.describe(source, target));
+    manifest.save();
+    assertThat(upToDate("target.txt")).isNotNull();
+  }
+
+  @Test
+  public void testCorruptManifestIsEmpty() throws Exception {
+    Files.write(manifestFile, "not json".getBytes(UTF_8));
+    assertThat(upToDate("target.txt")).isNull();
+  }
+
+  private StagingManifest.Entry upToDate(final String path) throws Exception {
+    return StagingManifest.load(manifestFile, digester).upToDate(path, source, target);
+  }
+
+  private void stage() throws Exception {
+    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.COPY_ATTRIBUTES);
+    final StagingManifest manifest = StagingManifest.load(manifestFile, digester);
+    manifest.put("target.txt", manifest.describe(source, target));
+    manifest.save();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 Spotify AB.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.docker;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.maven.project.MavenProject;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VolatileValuesTest {
+
+  @Test
+  public void testFind() {
+    final VolatileValues values = new VolatileValues(ImmutableMap.of(
+        "project.version", "1.2.3", "gitShortCommitId", "abc1234"));
+    assertThat(values.find("service-1.2.3")).isEqualTo("project.version");
+    assertThat(values.find("abc1234")).isEqualTo("gitShortCommitId");
+    assertThat(values.find("${gitShortCommitId}")).isEqualTo("gitShortCommitId");
+    assertThat(values.find("production")).isNull();
+    assertThat(values.find(null)).isNull();
+  }
+
+  @Test
+  public void testFindOnlyWholeValues() {
+    final VolatileValues values = new VolatileValues(ImmutableMap.of("project.version", "1.0"));
+    assertThat(values.find("app-1.0.jar")).isEqualTo("project.version");
+    assertThat(values.find("1.0")).isEqualTo("project.version");
+    assertThat(values.find("3.11.0")).isNull();
+    assertThat(values.find("1.0.5")).isNull();
+    assertThat(values.find("v21.0")).isNull();
+  }
+
+  @Test
+  public void testIgnoresCommonValues() {
+    final VolatileValues values = new VolatileValues(ImmutableMap.of(
+        "maven.gitcommitid.skip", "true", "buildNumber", "42"));
+    assertThat(values.find("true")).isNull();
+    assertThat(values.find("enabled=true")).isNull();
+    assertThat(values.find("42")).isNull();
+  }
+
+  @Test
+  public void testOf() {
+    final MavenProject project = new MavenProject();
+    project.setVersion("1.0-SNAPSHOT");
+    project.getProperties().setProperty("git.commit.id.abbrev", "abc1234");
+    project.getProperties().setProperty("java.version", "1.8");
+    project.getProperties().setProperty("maven.build.timestamp.format", "yyyy");
+
+    final VolatileValues values = VolatileValues.of(project, new Date(0));
+    assertThat(values.find("1.0-SNAPSHOT")).isEqualTo("project.version");
+    assertThat(values.find("abc1234")).isEqualTo("git.commit.id.abbrev");
+    assertThat(values.find("built in 1970")).isEqualTo("maven.build.timestamp");
+    assertThat(values.find("1.8")).isNull();
+  }
+}